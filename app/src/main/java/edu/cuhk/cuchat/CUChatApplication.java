@@ -0,0 +1,73 @@
+package edu.cuhk.cuchat;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+
+import edu.cuhk.cuchat.services.PresenceManager;
+
+/**
+ * Feeds app-wide signals into {@link PresenceManager}: whether any activity is started,
+ * and who is signed in. Activities do not report presence themselves.
+ */
+public class CUChatApplication extends Application implements Application.ActivityLifecycleCallbacks {
+
+    private int startedActivities = 0;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        registerActivityLifecycleCallbacks(this);
+
+        // Covers sign in, registration and an already signed in user on app start.
+        // Sign out stops the manager itself, before the auth token goes away.
+        FirebaseAuth.getInstance().addAuthStateListener(auth -> {
+            FirebaseUser user = auth.getCurrentUser();
+            if (user != null) {
+                PresenceManager.getInstance().start(user.getUid());
+            }
+        });
+    }
+
+    @Override
+    public void onActivityStarted(@NonNull Activity activity) {
+        // The next activity starts before the previous one stops, so moving between
+        // screens never drops this to zero
+        startedActivities++;
+        PresenceManager.getInstance().setForeground(true);
+    }
+
+    @Override
+    public void onActivityStopped(@NonNull Activity activity) {
+        startedActivities = Math.max(0, startedActivities - 1);
+        if (startedActivities == 0) {
+            PresenceManager.getInstance().setForeground(false);
+        }
+    }
+
+    @Override
+    public void onActivityCreated(@NonNull Activity activity, @Nullable Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityResumed(@NonNull Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(@NonNull Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(@NonNull Activity activity) {
+    }
+}
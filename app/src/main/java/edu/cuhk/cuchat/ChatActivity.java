@@ -1,6 +1,8 @@
 package edu.cuhk.cuchat;
 
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.text.format.DateFormat;
 import android.util.Log;
@@ -21,16 +23,9 @@ import com.bumptech.glide.Glide;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.DocumentChange;
-import com.google.firebase.firestore.DocumentReference;
-import com.google.firebase.firestore.DocumentSnapshot;
-import com.google.firebase.firestore.EventListener;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.ListenerRegistration;
-import com.google.firebase.firestore.Query;
-import com.google.firebase.firestore.QuerySnapshot;
 import com.google.firebase.firestore.SetOptions;
-import com.google.firebase.firestore.WriteBatch;
 
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -40,7 +35,10 @@ import java.util.Map;
 
 import de.hdodenhof.circleimageview.CircleImageView;
 import edu.cuhk.cuchat.adapters.MessagesAdapter;
+import edu.cuhk.cuchat.data.MessagePager;
 import edu.cuhk.cuchat.models.Message;
+import edu.cuhk.cuchat.services.PresenceManager;
+import edu.cuhk.cuchat.utils.MessageIndex;
 
 public class ChatActivity extends AppCompatActivity {
 
@@ -62,9 +60,20 @@ public class ChatActivity extends AppCompatActivity {
     private String chatId; // ID of the chat document in Firestore
 
     private MessagesAdapter messagesAdapter;
-    private List<Message> messageList;
+    private MessageIndex messageList; // Loaded messages, oldest first, indexed by ID
+    private MessagePager messagePager;
 
-    private ListenerRegistration userStatusListener; // Add this to track the user status listener
+    // Read receipts are a single watermark per user on the chat document
+    // (lastReadTimestamp.<userId>). Messages up to it count as seen.
+    private static final long READ_RECEIPT_DEBOUNCE_MS = 300;
+    private long newestFromPeer = 0; // Timestamp of the newest loaded message from chatUserId
+    private long ownLastReadTimestamp = 0; // Our watermark as last written or read back
+    private final Handler receiptHandler = new Handler(Looper.getMainLooper());
+    private final Runnable flushReadReceipts = this::flushReadReceipts;
+    private boolean receiptsInFlight = false;
+    private ListenerRegistration chatListener;
+
+    private PresenceManager.Subscription userPresence;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -110,8 +119,8 @@ public class ChatActivity extends AppCompatActivity {
         }
 
         // Initialize RecyclerView
-        messageList = new ArrayList<>();
-        messagesAdapter = new MessagesAdapter(this, messageList, currentUserId);
+        messageList = new MessageIndex();
+        messagesAdapter = new MessagesAdapter(this, currentUserId);
         rvMessages.setLayoutManager(new LinearLayoutManager(this));
         rvMessages.setAdapter(messagesAdapter);
 
@@ -122,6 +131,25 @@ public class ChatActivity extends AppCompatActivity {
             chatId = chatUserId + "_" + currentUserId;
         }
 
+        // Only the newest page of messages is live, older pages load while scrolling up
+        messagePager = new MessagePager(this, db, chatId, new MessagePager.Listener() {
+            @Override
+            public void onMessagesLoaded(List<Message> messages) {
+                handleMessagesLoaded(messages);
+            }
+
+            @Override
+            public void onLiveChanges(List<DocumentChange> changes) {
+                handleLiveMessageChanges(changes);
+            }
+
+            @Override
+            public void onOlderMessages(List<Message> olderMessages) {
+                handleOlderMessages(olderMessages);
+            }
+        });
+        messagePager.attachTo(rvMessages);
+
         // Set click listener for send button
         btnSendMessage.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -136,31 +164,19 @@ public class ChatActivity extends AppCompatActivity {
         // Start listening for user status changes
         listenForUserStatusChanges();
 
-        setupMessageSeenListener();
+        listenForReadWatermarks();
     }
 
-    // Add this method to listen for user status changes
+    // Presence of the other user, from their Realtime Database status node
     private void listenForUserStatusChanges() {
-        DocumentReference userRef = db.collection("users").document(chatUserId);
-
-        userStatusListener = userRef.addSnapshotListener(new EventListener<DocumentSnapshot>() {
-            @Override
-            public void onEvent(@Nullable DocumentSnapshot snapshot, @Nullable FirebaseFirestoreException e) {
-                if (e != null) {
-                    Log.w(TAG, "Listen failed.", e);
-                    return;
-                }
-
-                if (snapshot != null && snapshot.exists()) {
-                    // Check if user is online
-                    Boolean isOnline = snapshot.getBoolean("isOnline");
-                    Long lastSeen = snapshot.getLong("lastSeen");
-
-                    // Update UI with status
-                    updateUserStatusUI(isOnline, lastSeen);
-                }
+        PresenceManager presenceManager = PresenceManager.getInstance();
+        userPresence = presenceManager.observe(changes -> {
+            Boolean isOnline = changes.get(chatUserId);
+            if (isOnline != null) {
+                updateUserStatusUI(isOnline, presenceManager.getLastChanged(chatUserId));
             }
         });
+        userPresence.add(chatUserId);
     }
 
     // Add this method to update the user status UI
@@ -188,100 +204,146 @@ public class ChatActivity extends AppCompatActivity {
     }
 
     private void loadMessages() {
-        db.collection("chats").document(chatId).collection("messages")
-                .orderBy("timestamp", Query.Direction.ASCENDING)
-                .addSnapshotListener(new EventListener<QuerySnapshot>() {
-                    @Override
-                    public void onEvent(@Nullable QuerySnapshot value, @Nullable FirebaseFirestoreException error) {
-                        if (error != null) {
-                            Log.w(TAG, "Listen failed.", error);
-                            return;
-                        }
+        messagePager.start();
+    }
 
-                        for (DocumentChange dc : value.getDocumentChanges()) {
-                            switch (dc.getType()) {
-                                case ADDED:
-                                    Message message = dc.getDocument().toObject(Message.class);
-                                    message.setMessageId(dc.getDocument().getId());
-                                    messageList.add(message);
-                                    break;
-                                case MODIFIED:
-                                    // Handle modified messages - update the seen status
-                                    Message updatedMessage = dc.getDocument().toObject(Message.class);
-                                    updatedMessage.setMessageId(dc.getDocument().getId());
-
-                                    // Find and replace the modified message
-                                    for (int i = 0; i < messageList.size(); i++) {
-                                        if (messageList.get(i).getMessageId().equals(updatedMessage.getMessageId())) {
-                                            messageList.set(i, updatedMessage);
-                                            messagesAdapter.notifyItemChanged(i);
-                                            break;
-                                        }
-                                    }
-                                    break;
-                                case REMOVED:
-                                    // Handle removed messages if needed
-                                    break;
-                            }
-                        }
+    private void handleLiveMessageChanges(List<DocumentChange> changes) {
+        boolean appended = false;
 
-                        messagesAdapter.notifyDataSetChanged();
-                        if (messageList.size() > 0) {
-                            rvMessages.scrollToPosition(messageList.size() - 1);
-                        }
+        for (DocumentChange dc : changes) {
+            switch (dc.getType()) {
+                case ADDED:
+                    Message message = MessagePager.toMessage(dc.getDocument());
+                    if (message != null) {
+                        appended |= addLiveMessage(message);
+                        trackSeenState(message);
+                    }
+                    break;
+                case MODIFIED:
+                    // Handle modified messages - update the seen status
+                    Message updatedMessage = MessagePager.toMessage(dc.getDocument());
+                    if (updatedMessage == null) {
+                        break;
+                    }
 
-                        // Mark messages as seen if they are from the chat user
-                        markMessagesAsSeen();
+                    // Replace the modified message in place
+                    messageList.update(updatedMessage);
+                    break;
+                case REMOVED:
+                    // Deleted on the server, the pager has already dropped it from disk
+                    String removedId = dc.getDocument().getId();
+                    if (messageList.remove(removedId) >= 0) {
+                        Log.d(TAG, "Message removed: " + removedId);
                     }
-                });
+                    break;
+            }
+        }
+
+        submitMessages(appended);
+
+        // Mark messages as seen if they are from the chat user
+        markMessagesAsSeen();
     }
 
-    private void setupMessageSeenListener() {
-        // Listen for changes to the messages in this chat to update seen status in real-time
-        db.collection("chats").document(chatId).collection("messages")
-                .whereEqualTo("senderId", currentUserId)  // Only listen for messages sent by the current user
-                .addSnapshotListener((snapshots, e) -> {
+    // Returns true if the message was appended at the bottom of the conversation
+    private boolean addLiveMessage(Message message) {
+        // A message already shown from disk or an older page is replaced instead of duplicated
+        if (messageList.update(message) >= 0) {
+            return false;
+        }
+        return messageList.insertSorted(message) == messageList.size() - 1;
+    }
+
+    private void handleMessagesLoaded(List<Message> messages) {
+        messageList.replaceAll(messages);
+        submitMessages(true);
+
+        for (Message message : messages) {
+            trackSeenState(message);
+        }
+
+        markMessagesAsSeen();
+    }
+
+    private void handleOlderMessages(List<Message> olderMessages) {
+        messageList.prependAll(olderMessages);
+        submitMessages(false);
+    }
+
+    // The adapter diffs a copy of messageList off the main thread and dispatches
+    // fine-grained notifications, so submitted messages are never mutated in place
+    private void submitMessages(boolean scrollToBottom) {
+        messagesAdapter.submitList(messageList.snapshot(), () -> {
+            if (scrollToBottom && !messageList.isEmpty()) {
+                rvMessages.scrollToPosition(messageList.size() - 1);
+            }
+        });
+    }
+
+    // Both watermarks live on the chat document, one listener covers them
+    private void listenForReadWatermarks() {
+        chatListener = db.collection("chats").document(chatId)
+                .addSnapshotListener((snapshot, e) -> {
                     if (e != null) {
                         Log.w(TAG, "Listen failed.", e);
                         return;
                     }
+                    if (snapshot == null || !snapshot.exists()) {
+                        return;
+                    }
 
-                    for (DocumentChange dc : snapshots.getDocumentChanges()) {
-                        if (dc.getType() == DocumentChange.Type.MODIFIED) {
-                            // Message was modified - check if seen status changed
-                            Message updatedMessage = dc.getDocument().toObject(Message.class);
-                            updatedMessage.setMessageId(dc.getDocument().getId());
-
-                            // Update the seen status in the adapter
-                            boolean seen = updatedMessage.isSeen();
-                            if (seen && messagesAdapter != null) {
-                                messagesAdapter.updateMessageSeenStatus(updatedMessage.getMessageId(), true);
-                            }
-                        }
+                    Long peerLastRead = snapshot.getLong("lastReadTimestamp." + chatUserId);
+                    messagesAdapter.setPeerLastReadTimestamp(peerLastRead != null ? peerLastRead : 0);
+
+                    Long ownLastRead = snapshot.getLong("lastReadTimestamp." + currentUserId);
+                    if (ownLastRead != null && ownLastRead > ownLastReadTimestamp) {
+                        ownLastReadTimestamp = ownLastRead;
                     }
                 });
     }
 
-    private void markMessagesAsSeen() {
-        boolean updatedAny = false;
-        WriteBatch batch = db.batch();
-
-        for (Message message : messageList) {
-            if (message.getSenderId().equals(chatUserId) && !message.isSeen()) {
-                DocumentReference messageRef = db.collection("chats").document(chatId)
-                        .collection("messages").document(message.getMessageId());
-                batch.update(messageRef, "seen", true);
-                updatedAny = true;
-            }
+    private void trackSeenState(Message message) {
+        if (chatUserId.equals(message.getSenderId()) && message.getTimestamp() > newestFromPeer) {
+            newestFromPeer = message.getTimestamp();
         }
+    }
+
+    // Calls arriving within the debounce window (snapshot bursts, onResume racing the
+    // listener) collapse into a single write
+    private void markMessagesAsSeen() {
+        receiptHandler.removeCallbacks(flushReadReceipts);
+        receiptHandler.postDelayed(flushReadReceipts, READ_RECEIPT_DEBOUNCE_MS);
+    }
 
-        if (updatedAny) {
-            batch.commit().addOnSuccessListener(aVoid -> {
-                Log.d(TAG, "Batch update successful - messages marked as seen");
-            }).addOnFailureListener(e -> {
-                Log.e(TAG, "Error updating messages seen status", e);
-            });
+    private void flushReadReceipts() {
+        if (receiptsInFlight || newestFromPeer <= ownLastReadTimestamp) {
+            // A newer message arriving meanwhile is picked up once the running write completes
+            return;
         }
+
+        final long readUpTo = newestFromPeer;
+        Map<String, Object> lastRead = new HashMap<>();
+        lastRead.put(currentUserId, readUpTo);
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("lastReadTimestamp", lastRead);
+
+        // One write acknowledges every message up to readUpTo
+        receiptsInFlight = true;
+        db.collection("chats").document(chatId)
+                .set(updates, SetOptions.merge())
+                .addOnSuccessListener(aVoid -> {
+                    if (readUpTo > ownLastReadTimestamp) {
+                        ownLastReadTimestamp = readUpTo;
+                    }
+                    Log.d(TAG, "Read watermark advanced to " + readUpTo);
+                })
+                .addOnFailureListener(e -> Log.e(TAG, "Error updating read watermark", e))
+                .addOnCompleteListener(task -> {
+                    receiptsInFlight = false;
+                    if (task.isSuccessful() && newestFromPeer > ownLastReadTimestamp) {
+                        markMessagesAsSeen();
+                    }
+                });
     }
 
     private void sendMessage() {
@@ -316,7 +378,6 @@ public class ChatActivity extends AppCompatActivity {
                             .get()
                             .addOnSuccessListener(documentSnapshot -> {
                                 String receiverToken = documentSnapshot.getString("fcmToken");
-                                boolean isOnline = Boolean.TRUE.equals(documentSnapshot.getBoolean("isOnline"));
 
                                 // Mark that we checked for notification
                                 documentReference.update("notificationSent", true);
@@ -396,13 +457,6 @@ public class ChatActivity extends AppCompatActivity {
                 });
     }
 
-    private void updateUserStatus(boolean isOnline) {
-        if (currentUserId != null) {
-            db.collection("users").document(currentUserId)
-                    .update("isOnline", isOnline);
-        }
-    }
-
     private void updateUserStatusUI(Boolean isOnline, String status, Long lastSeen) {
         runOnUiThread(new Runnable() {
             @Override
@@ -459,52 +513,31 @@ public class ChatActivity extends AppCompatActivity {
         }
     }
 
-    @Override
-    protected void onPause() {
-        super.onPause();
-        updateUserStatus(false);
-    }
-
-    @Override
-    protected void onStop() {
-        super.onStop();
-
-        // Update online status when leaving chat
-        // But only if finishing (actually leaving the activity)
-        if (isFinishing()) {
-            if (currentUser != null) {
-                db.collection("users").document(currentUserId)
-                        .update("isOnline", true);  // Keep as online since app is still running
-            }
-        }
-    }
-
     @Override
     protected void onResume() {
         super.onResume();
-        // Update online status
-        if (currentUser != null) {
-            db.collection("users").document(currentUserId)
-                    .update("isOnline", true);
-        }
 
         // Mark this chat as seen
         updateChatSeenStatus();
 
         // Mark all messages as seen
         markMessagesAsSeen();
-
-        // Update user status to online
-        updateUserStatus(true);
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
         // Remove the user status listener to prevent memory leaks
-        if (userStatusListener != null) {
-            userStatusListener.remove();
+        if (userPresence != null) {
+            userPresence.cancel();
+        }
+        if (chatListener != null) {
+            chatListener.remove();
+        }
+        if (messagePager != null) {
+            messagePager.stop();
         }
+        receiptHandler.removeCallbacks(flushReadReceipts);
     }
 
 }
\ No newline at end of file
@@ -40,7 +40,12 @@ import java.util.List;
 import java.util.Map;
 
 import edu.cuhk.cuchat.adapters.GroupMessagesAdapter;
+import edu.cuhk.cuchat.data.BatchWriter;
+import edu.cuhk.cuchat.data.MessagePager;
+import edu.cuhk.cuchat.data.MessageStore;
+import edu.cuhk.cuchat.data.UserProfileCache;
 import edu.cuhk.cuchat.models.Message;
+import edu.cuhk.cuchat.utils.MessageIndex;
 import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.view.Menu;
@@ -73,11 +78,19 @@ public class GroupChatActivity extends AppCompatActivity {
     private List<String> participants;
 
     private GroupMessagesAdapter messagesAdapter;
-    private List<Message> messageList;
+    private MessageIndex messageList; // Loaded messages, oldest first, indexed by ID
 
-    private ListenerRegistration messagesListener;
+    private MessagePager messagePager;
     private ListenerRegistration groupInfoListener;
 
+    // Our own read state as last seen on the chat document. updateGroupSeenStatus only
+    // writes when it is behind, and only one write runs at a time.
+    private boolean chatStateLoaded = false;
+    private boolean ownSeenFlag = false;
+    private long ownLastReadTimestamp = 0;
+    private boolean seenUpdateInFlight = false;
+    private boolean seenUpdatePending = false;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -125,13 +138,31 @@ public class GroupChatActivity extends AppCompatActivity {
         tvParticipantsCount.setVisibility(View.VISIBLE);
 
         // Initialize RecyclerView
-        messageList = new ArrayList<>();
-        messagesAdapter = new GroupMessagesAdapter(this, messageList, currentUserId);
+        messageList = new MessageIndex();
+        messagesAdapter = new GroupMessagesAdapter(this, currentUserId);
 
         LinearLayoutManager layoutManager = new LinearLayoutManager(this);
         rvMessages.setLayoutManager(layoutManager);
         rvMessages.setAdapter(messagesAdapter);
 
+        messagePager = new MessagePager(this, db, chatId, new MessagePager.Listener() {
+            @Override
+            public void onMessagesLoaded(List<Message> messages) {
+                handleMessagesLoaded(messages);
+            }
+
+            @Override
+            public void onLiveChanges(List<DocumentChange> changes) {
+                handleLiveMessageChanges(changes);
+            }
+
+            @Override
+            public void onOlderMessages(List<Message> olderMessages) {
+                handleOlderMessages(olderMessages);
+            }
+        });
+        messagePager.attachTo(rvMessages);
+
         // Set click listener for send button
         btnSendMessage.setOnClickListener(v -> sendMessage());
 
@@ -226,6 +257,16 @@ public class GroupChatActivity extends AppCompatActivity {
                             tvParticipantsCount.setText("Error loading members");
                             tvParticipantsCount.setVisibility(View.VISIBLE);
                         }
+
+                        // A sent message counts as seen once any other member has read up to it
+                        messagesAdapter.setPeerLastReadTimestamp(newestPeerWatermark(snapshot.get("lastReadTimestamp")));
+
+                        // A new message resets our seenStatus flag, acknowledge it if needed
+                        Long ownLastRead = snapshot.getLong("lastReadTimestamp." + currentUserId);
+                        ownLastReadTimestamp = Math.max(ownLastReadTimestamp, ownLastRead != null ? ownLastRead : 0);
+                        ownSeenFlag = Boolean.TRUE.equals(snapshot.getBoolean("seenStatus." + currentUserId));
+                        chatStateLoaded = true;
+                        updateGroupSeenStatus();
                     });
         } catch (Exception e) {
             Log.e(TAG, "Exception in loadGroupInfo", e);
@@ -241,102 +282,118 @@ public class GroupChatActivity extends AppCompatActivity {
                 return;
             }
 
-            // Remove previous listener if exists
-            if (messagesListener != null) {
-                messagesListener.remove();
-            }
-
             // Clear the current message list
             messageList.clear();
             if (messagesAdapter != null) {
-                messagesAdapter.notifyDataSetChanged();
+                submitMessages(false);
             }
 
-            // Set up real-time listener for messages
-            messagesListener = db.collection("chats").document(chatId).collection("messages")
-                    .orderBy("timestamp", Query.Direction.ASCENDING)
-                    .addSnapshotListener((value, error) -> {
-                        if (error != null) {
-                            Log.e(TAG, "Listen failed in loadMessages", error);
-                            return;
-                        }
+            // Live listener on the newest page only, older pages load while scrolling up
+            messagePager.start();
+        } catch (Exception e) {
+            Log.e(TAG, "Exception in loadMessages", e);
+        }
+    }
 
-                        if (value == null) {
-                            Log.e(TAG, "QuerySnapshot is null in loadMessages");
-                            return;
-                        }
+    private void handleLiveMessageChanges(List<DocumentChange> changes) {
+        try {
+            boolean appended = false;
 
+            for (DocumentChange dc : changes) {
+                switch (dc.getType()) {
+                    case ADDED:
                         try {
-                            for (DocumentChange dc : value.getDocumentChanges()) {
-                                switch (dc.getType()) {
-                                    case ADDED:
-                                        try {
-                                            // Add new message
-                                            Message message = dc.getDocument().toObject(Message.class);
-                                            message.setMessageId(dc.getDocument().getId());
-                                            messageList.add(message);
-                                            Log.d(TAG, "Message added: " + message.getContent());
-                                        } catch (Exception e) {
-                                            Log.e(TAG, "Error adding message", e);
-                                        }
-                                        break;
-
-                                    case MODIFIED:
-                                        try {
-                                            // Handle message modification
-                                            String modifiedId = dc.getDocument().getId();
-                                            Message updatedMessage = dc.getDocument().toObject(Message.class);
-                                            updatedMessage.setMessageId(modifiedId);
-
-                                            // Find and replace the message in our list
-                                            for (int i = 0; i < messageList.size(); i++) {
-                                                if (messageList.get(i).getMessageId().equals(modifiedId)) {
-                                                    messageList.set(i, updatedMessage);
-                                                    Log.d(TAG, "Message updated: " + modifiedId);
-                                                    break;
-                                                }
-                                            }
-                                        } catch (Exception e) {
-                                            Log.e(TAG, "Error updating message", e);
-                                        }
-                                        break;
-
-                                    case REMOVED:
-                                        try {
-                                            // Handle message removal
-                                            String removedId = dc.getDocument().getId();
-                                            for (int i = 0; i < messageList.size(); i++) {
-                                                if (messageList.get(i).getMessageId().equals(removedId)) {
-                                                    messageList.remove(i);
-                                                    Log.d(TAG, "Message removed: " + removedId);
-                                                    break;
-                                                }
-                                            }
-                                        } catch (Exception e) {
-                                            Log.e(TAG, "Error removing message", e);
-                                        }
-                                        break;
-                                }
+                            // Add new message
+                            Message message = MessagePager.toMessage(dc.getDocument());
+                            if (message != null) {
+                                appended |= addLiveMessage(message);
+                                Log.d(TAG, "Message added: " + message.getContent());
                             }
+                        } catch (Exception e) {
+                            Log.e(TAG, "Error adding message", e);
+                        }
+                        break;
 
-                            // Update the adapter
-                            messagesAdapter.notifyDataSetChanged();
-
-                            // Scroll to bottom if we have messages
-                            if (messageList.size() > 0) {
-                                rvMessages.scrollToPosition(messageList.size() - 1);
+                    case MODIFIED:
+                        try {
+                            // Handle message modification
+                            String modifiedId = dc.getDocument().getId();
+                            Message updatedMessage = MessagePager.toMessage(dc.getDocument());
+                            if (updatedMessage == null) {
+                                break;
                             }
 
-                            // Update seen status for all messages
-                            updateGroupSeenStatus();
+                            // Replace the message in our list
+                            if (messageList.update(updatedMessage) >= 0) {
+                                Log.d(TAG, "Message updated: " + modifiedId);
+                            }
+                        } catch (Exception e) {
+                            Log.e(TAG, "Error updating message", e);
+                        }
+                        break;
 
+                    case REMOVED:
+                        try {
+                            // Handle message removal
+                            String removedId = dc.getDocument().getId();
+                            if (messageList.remove(removedId) >= 0) {
+                                Log.d(TAG, "Message removed: " + removedId);
+                            }
                         } catch (Exception e) {
-                            Log.e(TAG, "Error processing message changes", e);
+                            Log.e(TAG, "Error removing message", e);
                         }
-                    });
+                        break;
+                }
+            }
+
+            // Update the adapter, scrolling to the bottom when new messages arrived
+            submitMessages(appended);
+
+            // Update seen status for all messages
+            updateGroupSeenStatus();
+
         } catch (Exception e) {
-            Log.e(TAG, "Exception in loadMessages", e);
+            Log.e(TAG, "Error processing message changes", e);
+        }
+    }
+
+    // Returns true if the message was appended at the bottom of the conversation
+    private boolean addLiveMessage(Message message) {
+        // A message already shown from disk or an older page is replaced instead of duplicated
+        if (messageList.update(message) >= 0) {
+            return false;
         }
+        return messageList.insertSorted(message) == messageList.size() - 1;
+    }
+
+    private void handleMessagesLoaded(List<Message> messages) {
+        try {
+            messageList.replaceAll(messages);
+            submitMessages(true);
+
+            updateGroupSeenStatus();
+        } catch (Exception e) {
+            Log.e(TAG, "Error showing loaded messages", e);
+        }
+    }
+
+    private void handleOlderMessages(List<Message> olderMessages) {
+        try {
+            messageList.prependAll(olderMessages);
+            submitMessages(false);
+        } catch (Exception e) {
+            Log.e(TAG, "Error adding older messages", e);
+        }
+    }
+
+    // The adapter diffs a copy of messageList off the main thread and dispatches
+    // fine-grained notifications, so submitted messages are never mutated in place
+    private void submitMessages(boolean scrollToBottom) {
+        messagesAdapter.submitList(messageList.snapshot(), () -> {
+            if (scrollToBottom && !messageList.isEmpty()) {
+                rvMessages.scrollToPosition(messageList.size() - 1);
+            }
+        });
     }
 
     private void ensureMessageFields(Message message, DocumentSnapshot doc) {
@@ -472,49 +529,43 @@ public class GroupChatActivity extends AppCompatActivity {
 
     private void updateGroupChatSummary(String lastMessage, long timestamp) {
         try {
-            // Fetch the current user's username
-            db.collection("users").document(currentUserId)
-                    .get()
-                    .addOnSuccessListener(documentSnapshot -> {
-                        try {
-                            String username = "User";
-                            if (documentSnapshot != null && documentSnapshot.exists()) {
-                                String fetchedUsername = documentSnapshot.getString("username");
-                                if (fetchedUsername != null) {
-                                    username = fetchedUsername;
-                                }
-                            }
+            // The current user's username, cached after the first message
+            UserProfileCache.getInstance().resolve(currentUserId, (userId, user) -> {
+                try {
+                    String username = "User";
+                    if (user != null && user.getUsername() != null) {
+                        username = user.getUsername();
+                    }
 
-                            final String finalUsername = username;
-
-                            // Create chat summary updates
-                            Map<String, Object> chatUpdates = new HashMap<>();
-                            chatUpdates.put("lastMessageContent", finalUsername + ": " + lastMessage);
-                            chatUpdates.put("lastMessageTimestamp", timestamp);
-                            chatUpdates.put("lastMessageSenderId", currentUserId);
-
-                            // Safely handle participants and seen status
-                            if (participants == null) {
-                                // If participants list is null, fetch it first
-                                db.collection("chats").document(chatId)
-                                        .get()
-                                        .addOnSuccessListener(chatDoc -> {
-                                            if (chatDoc != null && chatDoc.exists()) {
-                                                List<String> fetchedParticipants = (List<String>) chatDoc.get("participants");
-                                                if (fetchedParticipants != null && !fetchedParticipants.isEmpty()) {
-                                                    updateSeenStatus(chatUpdates, fetchedParticipants);
-                                                }
-                                            }
-                                        });
-                            } else {
-                                // Use the existing participants list
-                                updateSeenStatus(chatUpdates, participants);
-                            }
-                        } catch (Exception e) {
-                            Log.e(TAG, "Error processing username for chat summary", e);
-                        }
-                    })
-                    .addOnFailureListener(e -> Log.e(TAG, "Error fetching username", e));
+                    final String finalUsername = username;
+
+                    // Create chat summary updates
+                    Map<String, Object> chatUpdates = new HashMap<>();
+                    chatUpdates.put("lastMessageContent", finalUsername + ": " + lastMessage);
+                    chatUpdates.put("lastMessageTimestamp", timestamp);
+                    chatUpdates.put("lastMessageSenderId", currentUserId);
+
+                    // Safely handle participants and seen status
+                    if (participants == null) {
+                        // If participants list is null, fetch it first
+                        db.collection("chats").document(chatId)
+                                .get()
+                                .addOnSuccessListener(chatDoc -> {
+                                    if (chatDoc != null && chatDoc.exists()) {
+                                        List<String> fetchedParticipants = (List<String>) chatDoc.get("participants");
+                                        if (fetchedParticipants != null && !fetchedParticipants.isEmpty()) {
+                                            updateSeenStatus(chatUpdates, fetchedParticipants);
+                                        }
+                                    }
+                                });
+                    } else {
+                        // Use the existing participants list
+                        updateSeenStatus(chatUpdates, participants);
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Error processing username for chat summary", e);
+                }
+            });
         } catch (Exception e) {
             Log.e(TAG, "Error in updateGroupChatSummary", e);
         }
@@ -540,6 +591,21 @@ public class GroupChatActivity extends AppCompatActivity {
         }
     }
 
+    private long newestPeerWatermark(Object lastReadTimestamps) {
+        long newest = 0;
+        if (lastReadTimestamps instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) lastReadTimestamps).entrySet()) {
+                if (!currentUserId.equals(entry.getKey()) && entry.getValue() instanceof Number) {
+                    newest = Math.max(newest, ((Number) entry.getValue()).longValue());
+                }
+            }
+        }
+        return newest;
+    }
+
+    // Acknowledges everything loaded so far with one chat document update. Runs without
+    // reading anything: the chat document listener keeps our read state current, and the
+    // newest loaded message is at the end of messageList.
     private void updateGroupSeenStatus() {
         try {
             if (chatId == null || currentUserId == null) {
@@ -547,95 +613,46 @@ public class GroupChatActivity extends AppCompatActivity {
                 return;
             }
 
-            Log.d(TAG, "updateGroupSeenStatus called for user: " + currentUserId);
-
-            // First update the main chat document seenStatus
-            DocumentReference chatRef = db.collection("chats").document(chatId);
-            chatRef.get().addOnSuccessListener(documentSnapshot -> {
-                if (documentSnapshot.exists()) {
-                    try {
-                        // Update the seenStatus map
-                        Map<String, Object> updates = new HashMap<>();
-
-                        // Get or create seenStatus map
-                        Map<String, Boolean> seenStatus;
-                        Object existingSeenStatus = documentSnapshot.get("seenStatus");
-
-                        if (existingSeenStatus instanceof Map) {
-                            seenStatus = (Map<String, Boolean>) existingSeenStatus;
-                        } else {
-                            seenStatus = new HashMap<>();
-                        }
-
-                        // Update current user's status
-                        seenStatus.put(currentUserId, true);
-                        updates.put("seenStatus", seenStatus);
-
-                        // Update the document
-                        chatRef.update(updates)
-                                .addOnSuccessListener(aVoid ->
-                                        Log.d(TAG, "Chat seenStatus updated for user: " + currentUserId))
-                                .addOnFailureListener(e ->
-                                        Log.e(TAG, "Error updating chat seenStatus", e));
-
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error processing chat seenStatus", e);
-                    }
-                } else {
-                    Log.e(TAG, "Chat document not found");
-                }
-            }).addOnFailureListener(e -> Log.e(TAG, "Error fetching chat document", e));
-
-            // Now update all message seenBy fields
-            // Instead of using a transaction (which was causing the error),
-            // first get all messages and then batch update them
-            db.collection("chats").document(chatId).collection("messages")
-                    .get()
-                    .addOnSuccessListener(messagesSnapshot -> {
-                        // Create a batch for all updates
-                        WriteBatch batch = db.batch();
-                        boolean hasPendingWrites = false;
-
-                        for (DocumentSnapshot doc : messagesSnapshot.getDocuments()) {
-                            try {
-                                Message message = doc.toObject(Message.class);
-                                if (message != null) {
-                                    // Get or create the seenBy map
-                                    Map<String, Boolean> seenBy = message.getSeenBy();
-                                    if (seenBy == null) {
-                                        seenBy = new HashMap<>();
-                                    }
+            if (seenUpdateInFlight) {
+                // Coalesce triggers, the running update re-checks when it completes
+                seenUpdatePending = true;
+                return;
+            }
+            if (!chatStateLoaded) {
+                // The chat document listener calls back once our read state is known
+                return;
+            }
 
-                                    // Only update if not already set to true
-                                    if (!Boolean.TRUE.equals(seenBy.get(currentUserId))) {
-                                        seenBy.put(currentUserId, true);
+            long newestTimestamp = messageList.isEmpty() ? 0
+                    : messageList.get(messageList.size() - 1).getTimestamp();
+            boolean advanceWatermark = newestTimestamp > ownLastReadTimestamp;
+            if (!advanceWatermark && ownSeenFlag) {
+                return;
+            }
 
-                                        // Add to the batch
-                                        batch.update(doc.getReference(), "seenBy", seenBy);
-                                        hasPendingWrites = true;
-                                        Log.d(TAG, "Adding seenBy update for message: " + message.getMessageId());
-                                    }
-                                }
-                            } catch (Exception e) {
-                                Log.e(TAG, "Error processing message for seenBy update", e);
-                            }
-                        }
+            Map<String, Object> updates = new HashMap<>();
+            updates.put("seenStatus." + currentUserId, true);
+            if (advanceWatermark) {
+                updates.put("lastReadTimestamp." + currentUserId, newestTimestamp);
+            }
 
-                        // Only commit if we have changes
-                        if (hasPendingWrites) {
-                            batch.commit()
-                                    .addOnSuccessListener(aVoid -> {
-                                        Log.d(TAG, "Batch update success - updated message seenBy fields");
-                                        // Refresh UI
-                                        messagesAdapter.notifyDataSetChanged();
-                                    })
-                                    .addOnFailureListener(e ->
-                                            Log.e(TAG, "Batch update failed - could not update message seenBy fields", e));
-                        } else {
-                            Log.d(TAG, "No seenBy updates needed");
-                        }
+            Log.d(TAG, "updateGroupSeenStatus writing read state for user: " + currentUserId);
+            seenUpdateInFlight = true;
+            db.collection("chats").document(chatId)
+                    .update(updates)
+                    .addOnSuccessListener(aVoid -> {
+                        ownSeenFlag = true;
+                        ownLastReadTimestamp = Math.max(ownLastReadTimestamp, newestTimestamp);
+                        Log.d(TAG, "Chat read state updated for user: " + currentUserId);
                     })
-                    .addOnFailureListener(e -> Log.e(TAG, "Error fetching messages for seenBy update", e));
+                    .addOnFailureListener(e -> Log.e(TAG, "Error updating chat read state", e))
+                    .addOnCompleteListener(task -> {
+                        seenUpdateInFlight = false;
+                        if (seenUpdatePending) {
+                            seenUpdatePending = false;
+                            updateGroupSeenStatus();
+                        }
+                    });
         } catch (Exception e) {
             Log.e(TAG, "Exception in updateGroupSeenStatus", e);
         }
@@ -712,21 +729,24 @@ public class GroupChatActivity extends AppCompatActivity {
             // 1. Get a reference to the messages collection
             CollectionReference messagesRef = db.collection("chats").document(chatId).collection("messages");
 
-            // 2. Get all messages in the group
-            messagesRef.get().addOnSuccessListener(querySnapshot -> {
-                // Use a batch to delete all messages
-                WriteBatch batch = db.batch();
+            // 2. Delete the messages page by page in batches of at most 500
+            new BatchWriter(db).deleteAll(messagesRef, new BatchWriter.Callback() {
+                @Override
+                public void onProgress(int processed) {
+                    progressDialog.setMessage("Deleting group... (" + processed + " messages)");
+                }
 
-                // Add each message document to the batch
-                querySnapshot.getDocuments().forEach(doc -> {
-                    batch.delete(doc.getReference());
-                });
+                @Override
+                public void onComplete(int processed) {
+                    Log.d(TAG, "Deleted " + processed + " messages");
 
-                // Execute the batch
-                batch.commit().addOnSuccessListener(aVoid -> {
                     // 3. Now that all messages are deleted, delete the group chat document
                     db.collection("chats").document(chatId).delete()
                             .addOnSuccessListener(aVoid2 -> {
+                                // Drop the local copy of the conversation as well
+                                MessageStore store = MessageStore.getInstance(GroupChatActivity.this);
+                                store.executor().execute(() -> store.deleteChat(chatId));
+
                                 progressDialog.dismiss();
                                 Toast.makeText(GroupChatActivity.this, "Group deleted successfully", Toast.LENGTH_SHORT).show();
                                 finish(); // Close the activity
@@ -736,15 +756,14 @@ public class GroupChatActivity extends AppCompatActivity {
                                 Log.e(TAG, "Error deleting group document", e);
                                 Toast.makeText(GroupChatActivity.this, "Error deleting group", Toast.LENGTH_SHORT).show();
                             });
-                }).addOnFailureListener(e -> {
+                }
+
+                @Override
+                public void onError(Exception e) {
                     progressDialog.dismiss();
                     Log.e(TAG, "Error deleting messages", e);
                     Toast.makeText(GroupChatActivity.this, "Error deleting group messages", Toast.LENGTH_SHORT).show();
-                });
-            }).addOnFailureListener(e -> {
-                progressDialog.dismiss();
-                Log.e(TAG, "Error getting messages", e);
-                Toast.makeText(GroupChatActivity.this, "Error accessing group messages", Toast.LENGTH_SHORT).show();
+                }
             });
         } catch (Exception e) {
             progressDialog.dismiss();
@@ -773,8 +792,8 @@ public class GroupChatActivity extends AppCompatActivity {
     protected void onDestroy() {
         super.onDestroy();
         // Remove listeners to prevent memory leaks
-        if (messagesListener != null) {
-            messagesListener.remove();
+        if (messagePager != null) {
+            messagePager.stop();
         }
         if (groupInfoListener != null) {
             groupInfoListener.remove();
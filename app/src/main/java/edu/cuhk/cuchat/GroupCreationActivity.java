@@ -2,7 +2,11 @@ package edu.cuhk.cuchat;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.MenuItem;
 import android.view.View;
@@ -22,25 +26,36 @@ import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
-import com.google.firebase.firestore.QuerySnapshot;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import edu.cuhk.cuchat.adapters.UserSelectionAdapter;
+import edu.cuhk.cuchat.data.UserDirectory;
+import edu.cuhk.cuchat.data.UserProfileCache;
 import edu.cuhk.cuchat.models.User;
+import edu.cuhk.cuchat.services.PresenceManager;
 
 public class GroupCreationActivity extends AppCompatActivity {
 
     private static final String TAG = "GroupCreationActivity";
 
+    // Wait for a pause in typing before querying
+    private static final long SEARCH_DEBOUNCE_MS = 300;
+
+    // Cached profiles shown on each keystroke, ahead of the directory's results
+    private static final int MAX_LOCAL_MATCHES = 20;
+
     private Toolbar toolbar;
     private EditText etGroupName;
+    private EditText etSearchUsers;
     private RecyclerView rvUsers;
     private Button btnCreateGroup;
 
@@ -52,6 +67,12 @@ public class GroupCreationActivity extends AppCompatActivity {
     private List<User> userList;
     private List<String> selectedUserIds;
     private UserSelectionAdapter userSelectionAdapter;
+    private UserDirectory userDirectory;
+    private PresenceManager.Subscription presence; // Online state of the users shown
+    private final Set<String> watchedUserIds = new HashSet<>();
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable searchUsers = () -> userDirectory.search(etSearchUsers.getText().toString());
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -71,6 +92,7 @@ public class GroupCreationActivity extends AppCompatActivity {
         getSupportActionBar().setTitle("Create Group Chat");
 
         etGroupName = findViewById(R.id.etGroupName);
+        etSearchUsers = findViewById(R.id.etSearchUsers);
         rvUsers = findViewById(R.id.rvSelectUsers);
         btnCreateGroup = findViewById(R.id.btnCreateGroup);
 
@@ -98,6 +120,8 @@ public class GroupCreationActivity extends AppCompatActivity {
             }
         });
 
+        presence = PresenceManager.getInstance().observe(userSelectionAdapter::applyPresenceChanges);
+
         rvUsers.setLayoutManager(new LinearLayoutManager(this));
         rvUsers.setAdapter(userSelectionAdapter);
 
@@ -109,13 +133,105 @@ public class GroupCreationActivity extends AppCompatActivity {
             }
         });
 
-        // Load users from Firestore
-        loadUsers();
+        // Users are loaded a page at a time as the list scrolls
+        userDirectory = new UserDirectory(db, currentUserId, new UserDirectory.Listener() {
+            @Override
+            public void onUsersLoaded(String query, List<User> users) {
+                if (query.isEmpty()) {
+                    showUsers(users);
+                } else {
+                    // Ranked, typo tolerant local matches first, then the directory's prefix matches
+                    List<User> merged = localMatches(query);
+                    Set<String> shown = new HashSet<>();
+                    for (User user : merged) {
+                        shown.add(user.getUserId());
+                    }
+                    for (User user : users) {
+                        if (shown.add(user.getUserId())) {
+                            merged.add(user);
+                        }
+                    }
+                    showUsers(merged);
+                }
+            }
+
+            @Override
+            public void onMoreUsers(List<User> users) {
+                userSelectionAdapter.addUsers(users);
+                watchPresence();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Toast.makeText(GroupCreationActivity.this, "Error loading users", Toast.LENGTH_SHORT).show();
+            }
+        });
+        userDirectory.attachTo(rvUsers);
+        userDirectory.search("");
+
+        etSearchUsers.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                // Answer from the profiles already cached right away, the directory follows
+                String query = s.toString().trim();
+                if (!query.isEmpty()) {
+                    showUsers(localMatches(query));
+                }
+                handler.removeCallbacks(searchUsers);
+                handler.postDelayed(searchUsers, SEARCH_DEBOUNCE_MS);
+            }
+        });
 
         // Initially disable the create button until we have selections
         updateCreateButtonState();
     }
 
+    private void showUsers(List<User> users) {
+        userSelectionAdapter.setUsers(users);
+        watchPresence();
+    }
+
+    // Watches the users in the list and drops the watches of those no longer in it, so
+    // typing one search after another does not pile up presence listeners
+    private void watchPresence() {
+        Set<String> shown = new HashSet<>();
+        for (User user : userList) {
+            shown.add(user.getUserId());
+        }
+        Iterator<String> watched = watchedUserIds.iterator();
+        while (watched.hasNext()) {
+            String userId = watched.next();
+            if (!shown.contains(userId)) {
+                presence.remove(userId);
+                watched.remove();
+            }
+        }
+        for (String userId : shown) {
+            if (watchedUserIds.add(userId)) {
+                presence.add(userId);
+            }
+        }
+    }
+
+    private List<User> localMatches(String query) {
+        // One extra, in case the current user is among them
+        List<User> matches = new ArrayList<>();
+        for (User user : UserProfileCache.getInstance().search(query, MAX_LOCAL_MATCHES + 1)) {
+            if (!currentUserId.equals(user.getUserId()) && matches.size() < MAX_LOCAL_MATCHES) {
+                matches.add(user);
+            }
+        }
+        return matches;
+    }
+
     private void updateCreateButtonState() {
         // Enable button only if we have a group name and at least one other member besides current user
         boolean hasGroupName = !TextUtils.isEmpty(etGroupName.getText().toString().trim());
@@ -124,33 +240,6 @@ public class GroupCreationActivity extends AppCompatActivity {
         btnCreateGroup.setEnabled(hasGroupName && hasMembers);
     }
 
-    private void loadUsers() {
-        db.collection("users")
-                .get()
-                .addOnCompleteListener(new OnCompleteListener<QuerySnapshot>() {
-                    @Override
-                    public void onComplete(@NonNull Task<QuerySnapshot> task) {
-                        if (task.isSuccessful()) {
-                            userList.clear();
-                            for (QueryDocumentSnapshot document : task.getResult()) {
-                                // Skip current user
-                                if (document.getId().equals(currentUserId)) {
-                                    continue;
-                                }
-
-                                User user = document.toObject(User.class);
-                                userList.add(user);
-                            }
-
-                            userSelectionAdapter.notifyDataSetChanged();
-                        } else {
-                            Log.d(TAG, "Error getting users: ", task.getException());
-                            Toast.makeText(GroupCreationActivity.this, "Error loading users", Toast.LENGTH_SHORT).show();
-                        }
-                    }
-                });
-    }
-
     private void createGroupChat() {
         final String groupName = etGroupName.getText().toString().trim();
 
@@ -234,6 +323,15 @@ public class GroupCreationActivity extends AppCompatActivity {
                 });
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        handler.removeCallbacks(searchUsers);
+        if (presence != null) {
+            presence.cancel();
+        }
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         if (item.getItemId() == android.R.id.home) {
@@ -20,12 +20,19 @@ import androidx.viewpager2.widget.ViewPager2;
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.database.ServerValue;
 import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 import edu.cuhk.cuchat.adapters.ViewPagerAdapter;
-import edu.cuhk.cuchat.services.UserStatusService;
+import edu.cuhk.cuchat.data.ChatSummaryStream;
+import edu.cuhk.cuchat.data.UserProfileCache;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -36,6 +43,8 @@ public class MainActivity extends AppCompatActivity {
     private ViewPagerAdapter viewPagerAdapter;
     private FirebaseAuth mAuth;
     private FirebaseFirestore db;
+    private ListenerRegistration chatsSubscription;
+    private final Map<String, Long> notifiedTimestamps = new HashMap<>(); // chatId -> lastMessageTimestamp
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -89,9 +98,6 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
-        // Start user status service
-        startService(new Intent(this, UserStatusService.class));
-
         // Check notification permission on Android 13+
         checkNotificationPermission();
 
@@ -116,45 +122,53 @@ public class MainActivity extends AppCompatActivity {
 
         String userId = currentUser.getUid();
 
-        // Listen for chats where current user is a participant
-        db.collection("chats")
-                .whereArrayContains("participants", userId)
-                .addSnapshotListener((snapshots, e) -> {
-                    if (e != null || snapshots == null) return;
-
-                    for (DocumentChange change : snapshots.getDocumentChanges()) {
-                        // Only handle modifications (new messages)
-                        if (change.getType() != DocumentChange.Type.MODIFIED) continue;
-
-                        String chatId = change.getDocument().getId();
-                        String lastMessageSenderId = change.getDocument().getString("lastMessageSenderId");
-                        String lastMessageContent = change.getDocument().getString("lastMessageContent");
-
-                        // Don't notify for own messages
-                        if (userId.equals(lastMessageSenderId)) continue;
-
-                        // Check if message is unread for current user
-                        boolean isUnread = false;
-                        String user1Id = change.getDocument().getString("user1Id");
-                        if (userId.equals(user1Id)) {
-                            isUnread = !Boolean.TRUE.equals(change.getDocument().getBoolean("user1Seen"));
-                        } else {
-                            isUnread = !Boolean.TRUE.equals(change.getDocument().getBoolean("user2Seen"));
-                        }
-
-                        if (isUnread && lastMessageSenderId != null && lastMessageContent != null) {
-                            // Get sender's name and show notification
-                            db.collection("users").document(lastMessageSenderId)
-                                    .get()
-                                    .addOnSuccessListener(userDoc -> {
-                                        if (userDoc.exists()) {
-                                            String senderName = userDoc.getString("username");
-                                            showLocalNotification(senderName, lastMessageContent, lastMessageSenderId);
-                                        }
-                                    });
-                        }
+        // Share the chat list listener with ChatsFragment
+        chatsSubscription = ChatSummaryStream.getInstance().subscribe(userId, new ChatSummaryStream.Listener() {
+            @Override
+            public void onChatsLoaded(List<DocumentSnapshot> chats) {
+                // Existing messages are not news, remember where each chat is at
+                for (DocumentSnapshot chat : chats) {
+                    notifiedTimestamps.put(chat.getId(), chat.getLong("lastMessageTimestamp"));
+                }
+            }
+
+            @Override
+            public void onChatChanges(List<DocumentChange> changes) {
+                for (DocumentChange change : changes) {
+                    // Only handle modifications (new messages)
+                    if (change.getType() != DocumentChange.Type.MODIFIED) continue;
+
+                    String chatId = change.getDocument().getId();
+                    String lastMessageSenderId = change.getDocument().getString("lastMessageSenderId");
+                    String lastMessageContent = change.getDocument().getString("lastMessageContent");
+
+                    // Read receipts also modify the chat, only notify once per message
+                    Long lastMessageTimestamp = change.getDocument().getLong("lastMessageTimestamp");
+                    if (Objects.equals(notifiedTimestamps.put(chatId, lastMessageTimestamp), lastMessageTimestamp)) continue;
+
+                    // Don't notify for own messages
+                    if (userId.equals(lastMessageSenderId)) continue;
+
+                    // Check if message is unread for current user
+                    boolean isUnread = false;
+                    String user1Id = change.getDocument().getString("user1Id");
+                    if (userId.equals(user1Id)) {
+                        isUnread = !Boolean.TRUE.equals(change.getDocument().getBoolean("user1Seen"));
+                    } else {
+                        isUnread = !Boolean.TRUE.equals(change.getDocument().getBoolean("user2Seen"));
+                    }
+
+                    if (isUnread && lastMessageSenderId != null && lastMessageContent != null) {
+                        // Get sender's name and show notification
+                        UserProfileCache.getInstance().resolve(lastMessageSenderId, (senderId, sender) -> {
+                            if (sender != null) {
+                                showLocalNotification(sender.getUsername(), lastMessageContent, lastMessageSenderId);
+                            }
+                        });
                     }
-                });
+                }
+            }
+        });
     }
 
     private void showLocalNotification(String title, String message, String senderId) {
@@ -191,55 +205,14 @@ public class MainActivity extends AppCompatActivity {
         notificationManager.notify(senderId.hashCode(), builder.build());
     }
 
-    @Override
-    protected void onStart() {
-        super.onStart();
-
-        // Update user's online status when app comes to foreground
-        FirebaseUser currentUser = mAuth.getCurrentUser();
-        if (currentUser != null) {
-            UserStatusService.setUserOnline(currentUser);
-        }
-    }
-
-    @Override
-    protected void onResume() {
-        super.onResume();
-        // Update online status
-        FirebaseUser currentUser = mAuth.getCurrentUser();
-        if (currentUser != null) {
-            UserStatusService.setUserOnline(currentUser);
-        }
-    }
-
-    @Override
-    protected void onPause() {
-        super.onPause();
-        // Do not update status to offline in onPause
-        // Only do it in onStop - this keeps the user online
-        // during brief pauses (like rotating the device)
-    }
-
-    @Override
-    protected void onStop() {
-        super.onStop();
-        // Update online status to offline when app goes to background
-        FirebaseUser currentUser = mAuth.getCurrentUser();
-        if (currentUser != null) {
-            // Don't set offline if just changing activities within the app
-            if (isFinishing()) {
-                UserStatusService.setUserOffline(currentUser);
-            }
-        }
-    }
+    // Online status is published by PresenceManager from the app's lifecycle, see
+    // CUChatApplication
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        // Make sure user is marked as offline when app is killed
-        FirebaseUser currentUser = mAuth.getCurrentUser();
-        if (currentUser != null) {
-            UserStatusService.setUserOffline(currentUser);
+        if (chatsSubscription != null) {
+            chatsSubscription.remove();
         }
     }
 }
\ No newline at end of file
@@ -23,7 +23,6 @@ import com.google.android.material.textfield.TextInputEditText;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.auth.UserProfileChangeRequest;
-import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.storage.FirebaseStorage;
@@ -34,8 +33,9 @@ import java.util.HashMap;
 import java.util.Map;
 
 import de.hdodenhof.circleimageview.CircleImageView;
+import edu.cuhk.cuchat.data.UserProfileCache;
 import edu.cuhk.cuchat.models.User;
-import edu.cuhk.cuchat.services.UserStatusService;
+import edu.cuhk.cuchat.services.PresenceManager;
 
 public class ProfileActivity extends AppCompatActivity {
 
@@ -222,6 +222,7 @@ public class ProfileActivity extends AppCompatActivity {
                 .addOnSuccessListener(new OnSuccessListener<Void>() {
                     @Override
                     public void onSuccess(Void aVoid) {
+                        UserProfileCache.getInstance().invalidate(userId);
                         Toast.makeText(ProfileActivity.this, "Profile updated successfully", Toast.LENGTH_SHORT).show();
                     }
                 })
@@ -235,22 +236,8 @@ public class ProfileActivity extends AppCompatActivity {
     }
 
     private void logoutUser() {
-        // Mark user as offline in Firestore
-        FirebaseUser currentUser = mAuth.getCurrentUser();
-        if (currentUser != null) {
-            FirebaseFirestore.getInstance().collection("users")
-                    .document(currentUser.getUid())
-                    .update("isOnline", false,
-                            "lastSeen", System.currentTimeMillis());
-
-            // Also mark in Realtime Database
-            FirebaseDatabase.getInstance().getReference()
-                    .child("status").child(currentUser.getUid())
-                    .setValue("offline");
-        }
-
-        // Stop the status service
-        stopService(new Intent(this, UserStatusService.class));
+        // Mark user as offline while still signed in
+        PresenceManager.getInstance().stop();
 
         // Sign out from Firebase
         mAuth.signOut();
@@ -169,7 +169,6 @@ public class RegisterActivity extends AppCompatActivity {
         userMap.put("status", "Hey, I'm using CUChat!");
         userMap.put("profileImageUrl", "");
         userMap.put("createdAt", System.currentTimeMillis());
-        userMap.put("isOnline", true);
 
         // Add FCM token if available
         if (fcmToken != null) {
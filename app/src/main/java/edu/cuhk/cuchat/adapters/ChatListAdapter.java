@@ -28,6 +28,10 @@ import android.graphics.Color;
 public class ChatListAdapter extends RecyclerView.Adapter<ChatListAdapter.ChatViewHolder> {
 
     private static final String TAG = "ChatListAdapter";
+
+    // Only the online indicator of a one-to-one chat needs to be rebound
+    public static final String PAYLOAD_PRESENCE = "payload_presence";
+
     private Context context;
     private List<ChatListItem> chatList;
 
@@ -53,6 +57,15 @@ public class ChatListAdapter extends RecyclerView.Adapter<ChatListAdapter.ChatVi
         }
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull ChatViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.contains(PAYLOAD_PRESENCE) && position >= 0 && position < chatList.size()) {
+            bindOnlineIndicator(holder, chatList.get(position));
+            return;
+        }
+        super.onBindViewHolder(holder, position, payloads);
+    }
+
     @Override
     public void onBindViewHolder(@NonNull ChatViewHolder holder, int position) {
         try {
@@ -109,14 +122,7 @@ public class ChatListAdapter extends RecyclerView.Adapter<ChatListAdapter.ChatVi
             }
 
             // Handle online status indicator
-            if (holder.onlineIndicator != null) {
-                if (chat.isGroupChat()) {
-                    holder.onlineIndicator.setVisibility(View.GONE);
-                } else {
-                    // Only show the indicator if the user is actually online
-                    holder.onlineIndicator.setVisibility(chat.isUserOnline() ? View.VISIBLE : View.GONE);
-                }
-            }
+            bindOnlineIndicator(holder, chat);
 
             // Handle profile image
             if (holder.ivProfilePic != null) {
@@ -174,6 +180,23 @@ public class ChatListAdapter extends RecyclerView.Adapter<ChatListAdapter.ChatVi
         }
     }
 
+    // Switches to another list, e.g. the view of a different filter tab
+    public void setChatList(List<ChatListItem> chatList) {
+        this.chatList = chatList;
+        notifyDataSetChanged();
+    }
+
+    private void bindOnlineIndicator(ChatViewHolder holder, ChatListItem chat) {
+        if (holder.onlineIndicator != null) {
+            if (chat.isGroupChat()) {
+                holder.onlineIndicator.setVisibility(View.GONE);
+            } else {
+                // Only show the indicator if the user is actually online
+                holder.onlineIndicator.setVisibility(chat.isUserOnline() ? View.VISIBLE : View.GONE);
+            }
+        }
+    }
+
     @Override
     public int getItemCount() {
         return chatList != null ? chatList.size() : 0;
@@ -10,40 +10,70 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.google.firebase.firestore.FirebaseFirestore;
-
 import java.util.Calendar;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
 import edu.cuhk.cuchat.R;
+import edu.cuhk.cuchat.data.UserProfileCache;
 import edu.cuhk.cuchat.models.Message;
 
-public class GroupMessagesAdapter extends RecyclerView.Adapter {
+public class GroupMessagesAdapter extends ListAdapter<Message, RecyclerView.ViewHolder> {
     private static final int VIEW_TYPE_MESSAGE_SENT = 1;
     private static final int VIEW_TYPE_MESSAGE_RECEIVED = 2;
     private static final int VIEW_TYPE_SYSTEM_MESSAGE = 3;
 
     private Context context;
-    private List<Message> messageList;
     private String currentUserId;
 
-    // Cache usernames to avoid repeated Firestore queries
-    private Map<String, String> usernameCache = new HashMap<>();
+    // Newest read watermark among the other participants
+    private long peerLastReadTimestamp = 0;
 
-    public GroupMessagesAdapter(Context context, List<Message> messageList, String currentUserId) {
+    public GroupMessagesAdapter(Context context, String currentUserId) {
+        super(new MessageDiffCallback());
         this.context = context;
-        this.messageList = messageList;
         this.currentUserId = currentUserId;
     }
 
+    // Sent messages up to and including this timestamp have been seen by someone
+    public void setPeerLastReadTimestamp(long timestamp) {
+        if (timestamp == peerLastReadTimestamp) {
+            return;
+        }
+        long previous = peerLastReadTimestamp;
+        peerLastReadTimestamp = timestamp;
+
+        // Only rebind the status line of messages whose state flipped
+        List<Message> messages = getCurrentList();
+        int from = firstAfter(messages, Math.min(previous, timestamp));
+        int to = firstAfter(messages, Math.max(previous, timestamp));
+        if (to > from) {
+            notifyItemRangeChanged(from, to - from, MessageDiffCallback.PAYLOAD_SEEN);
+        }
+    }
+
+    // Position of the first message newer than timestamp, messages are ordered by time
+    private static int firstAfter(List<Message> messages, long timestamp) {
+        int low = 0;
+        int high = messages.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (messages.get(mid).getTimestamp() <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
     @Override
     public int getItemViewType(int position) {
-        Message message = messageList.get(position);
+        Message message = getItem(position);
 
         // Safely check for system messages
         if (message == null) {
@@ -96,15 +126,29 @@ public class GroupMessagesAdapter extends RecyclerView.Adapter {
         }
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        // A seen receipt only changes the status line of a sent message
+        if (payloads.contains(MessageDiffCallback.PAYLOAD_SEEN) && holder instanceof SentMessageHolder) {
+            try {
+                ((SentMessageHolder) holder).bindStatus(getItem(position));
+            } catch (Exception e) {
+                Log.e("GroupMessagesAdapter", "Error binding seen status", e);
+            }
+            return;
+        }
+        super.onBindViewHolder(holder, position, payloads);
+    }
+
     @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
         try {
             // Safety check to prevent index out of bounds
-            if (position < 0 || position >= messageList.size()) {
+            if (position < 0 || position >= getItemCount()) {
                 return;
             }
 
-            Message message = messageList.get(position);
+            Message message = getItem(position);
             if (message == null) {
                 return;
             }
@@ -125,11 +169,6 @@ public class GroupMessagesAdapter extends RecyclerView.Adapter {
         }
     }
 
-    @Override
-    public int getItemCount() {
-        return messageList.size();
-    }
-
     private class SentMessageHolder extends RecyclerView.ViewHolder {
         TextView messageText, timeText, statusText;
 
@@ -146,36 +185,50 @@ public class GroupMessagesAdapter extends RecyclerView.Adapter {
                 messageText.setText(message.getContent());
                 timeText.setText(formatTime(message.getTimestamp()));
 
-                // Handle seen/delivered status
-                if (statusText != null) {
-                    Map<String, Boolean> seenBy = message.getSeenBy();
-                    if (seenBy != null && !seenBy.isEmpty()) {
-                        // Count how many people have seen the message (excluding sender)
-                        int seenCount = 0;
-                        for (Map.Entry<String, Boolean> entry : seenBy.entrySet()) {
-                            if (!entry.getKey().equals(currentUserId) && Boolean.TRUE.equals(entry.getValue())) {
-                                seenCount++;
-                            }
-                        }
+                bindStatus(message);
+            } catch (Exception e) {
+                Log.e("GroupMessagesAdapter", "Error binding sent message", e);
+            }
+        }
 
-                        if (seenCount > 0) {
-                            // At least one person has seen it
-                            statusText.setText("Seen");
-                            statusText.setTextColor(context.getResources().getColor(R.color.purple_500));
-                        } else {
-                            // No one has seen it yet
-                            statusText.setText("Delivered");
-                            statusText.setTextColor(Color.GRAY);
-                        }
-                        statusText.setVisibility(View.VISIBLE);
-                    } else {
-                        statusText.setText("Sent");
-                        statusText.setTextColor(Color.GRAY);
-                        statusText.setVisibility(View.VISIBLE);
+        void bindStatus(Message message) {
+            // Handle seen/delivered status
+            if (statusText == null) {
+                return;
+            }
+
+            if (message.getTimestamp() <= peerLastReadTimestamp) {
+                statusText.setText("Seen");
+                statusText.setTextColor(context.getResources().getColor(R.color.purple_500));
+                statusText.setVisibility(View.VISIBLE);
+                return;
+            }
+
+            // Messages acknowledged by older clients carry a per-message seenBy map
+            Map<String, Boolean> seenBy = message.getSeenBy();
+            if (seenBy != null && !seenBy.isEmpty()) {
+                // Count how many people have seen the message (excluding sender)
+                int seenCount = 0;
+                for (Map.Entry<String, Boolean> entry : seenBy.entrySet()) {
+                    if (!entry.getKey().equals(currentUserId) && Boolean.TRUE.equals(entry.getValue())) {
+                        seenCount++;
                     }
                 }
-            } catch (Exception e) {
-                Log.e("GroupMessagesAdapter", "Error binding sent message", e);
+
+                if (seenCount > 0) {
+                    // At least one person has seen it
+                    statusText.setText("Seen");
+                    statusText.setTextColor(context.getResources().getColor(R.color.purple_500));
+                } else {
+                    // No one has seen it yet
+                    statusText.setText("Delivered");
+                    statusText.setTextColor(Color.GRAY);
+                }
+                statusText.setVisibility(View.VISIBLE);
+            } else {
+                statusText.setText("Sent");
+                statusText.setTextColor(Color.GRAY);
+                statusText.setVisibility(View.VISIBLE);
             }
         }
     }
@@ -252,26 +305,9 @@ public class GroupMessagesAdapter extends RecyclerView.Adapter {
     }
 
     private void loadUsername(String userId, final UsernameCallback callback) {
-        // First check if the username is already cached
-        if (usernameCache.containsKey(userId)) {
-            callback.onUsernameLoaded(usernameCache.get(userId));
-            return;
-        }
-
-        // If not cached, query Firestore
-        FirebaseFirestore.getInstance().collection("users").document(userId)
-                .get()
-                .addOnSuccessListener(documentSnapshot -> {
-                    if (documentSnapshot.exists()) {
-                        String username = documentSnapshot.getString("username");
-                        // Cache the username for future use
-                        usernameCache.put(userId, username);
-                        callback.onUsernameLoaded(username);
-                    } else {
-                        callback.onUsernameLoaded(null);
-                    }
-                })
-                .addOnFailureListener(e -> callback.onUsernameLoaded(null));
+        // Shared with the other screens, senders of one page are fetched together
+        UserProfileCache.getInstance().resolve(userId, (id, user) ->
+                callback.onUsernameLoaded(user != null ? user.getUsername() : null));
     }
 
     // Interface for the username callback
@@ -0,0 +1,50 @@
+package edu.cuhk.cuchat.adapters;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+
+import java.util.Objects;
+
+import edu.cuhk.cuchat.models.Message;
+
+/**
+ * Diffs message lists by message ID for {@link MessagesAdapter} and {@link GroupMessagesAdapter}.
+ * Messages must be treated as immutable once submitted, updates arrive as new objects.
+ */
+public class MessageDiffCallback extends DiffUtil.ItemCallback<Message> {
+
+    // Only the seen/delivered status of a sent message needs to be rebound
+    public static final String PAYLOAD_SEEN = "payload_seen";
+
+    @Override
+    public boolean areItemsTheSame(@NonNull Message oldItem, @NonNull Message newItem) {
+        return Objects.equals(oldItem.getMessageId(), newItem.getMessageId());
+    }
+
+    @Override
+    public boolean areContentsTheSame(@NonNull Message oldItem, @NonNull Message newItem) {
+        return sameBody(oldItem, newItem) && sameSeenState(oldItem, newItem);
+    }
+
+    @Nullable
+    @Override
+    public Object getChangePayload(@NonNull Message oldItem, @NonNull Message newItem) {
+        if (sameBody(oldItem, newItem) && !sameSeenState(oldItem, newItem)) {
+            return PAYLOAD_SEEN;
+        }
+        return null;
+    }
+
+    private static boolean sameBody(Message oldItem, Message newItem) {
+        return oldItem.getTimestamp() == newItem.getTimestamp()
+                && oldItem.isSystemMessage() == newItem.isSystemMessage()
+                && Objects.equals(oldItem.getSenderId(), newItem.getSenderId())
+                && Objects.equals(oldItem.getContent(), newItem.getContent());
+    }
+
+    private static boolean sameSeenState(Message oldItem, Message newItem) {
+        return oldItem.isSeen() == newItem.isSeen()
+                && Objects.equals(oldItem.getSeenBy(), newItem.getSeenBy());
+    }
+}
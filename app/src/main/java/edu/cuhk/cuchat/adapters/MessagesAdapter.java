@@ -8,6 +8,7 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.Calendar;
@@ -18,14 +19,14 @@ import java.util.Map;
 import edu.cuhk.cuchat.R;
 import edu.cuhk.cuchat.models.Message;
 
-public class MessagesAdapter extends RecyclerView.Adapter {
+public class MessagesAdapter extends ListAdapter<Message, RecyclerView.ViewHolder> {
     private static final int VIEW_TYPE_MESSAGE_SENT = 1;
     private static final int VIEW_TYPE_MESSAGE_RECEIVED = 2;
 
     private Context context;
-    private List<Message> messageList;
     private String currentUserId;
     private Map<String, Boolean> seenBy; // Map of userId -> seen status
+    private long peerLastReadTimestamp = 0; // Read watermark of the other user
 
     // Add getter and setter for seenBy
     public Map<String, Boolean> getSeenBy() {
@@ -36,15 +37,52 @@ public class MessagesAdapter extends RecyclerView.Adapter {
         this.seenBy = seenBy;
     }
 
-    public MessagesAdapter(Context context, List<Message> messageList, String currentUserId) {
+    // Sent messages up to and including this timestamp are shown as seen
+    public void setPeerLastReadTimestamp(long timestamp) {
+        if (timestamp == peerLastReadTimestamp) {
+            return;
+        }
+        long previous = peerLastReadTimestamp;
+        peerLastReadTimestamp = timestamp;
+
+        // Only rebind the status line of messages whose state flipped
+        List<Message> messages = getCurrentList();
+        int from = firstAfter(messages, Math.min(previous, timestamp));
+        int to = firstAfter(messages, Math.max(previous, timestamp));
+        if (to > from) {
+            notifyItemRangeChanged(from, to - from, MessageDiffCallback.PAYLOAD_SEEN);
+        }
+    }
+
+    private boolean isSeen(Message message) {
+        // The per-message flag is still honoured for messages marked by older clients
+        return message.isSeen() || message.getTimestamp() <= peerLastReadTimestamp;
+    }
+
+    // Position of the first message newer than timestamp, messages are ordered by time
+    private static int firstAfter(List<Message> messages, long timestamp) {
+        int low = 0;
+        int high = messages.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (messages.get(mid).getTimestamp() <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public MessagesAdapter(Context context, String currentUserId) {
+        super(new MessageDiffCallback());
         this.context = context;
-        this.messageList = messageList;
         this.currentUserId = currentUserId;
     }
 
     @Override
     public int getItemViewType(int position) {
-        Message message = messageList.get(position);
+        Message message = getItem(position);
 
         if (message.getSenderId().equals(currentUserId)) {
             // If the current user is the sender of the message
@@ -73,9 +111,19 @@ public class MessagesAdapter extends RecyclerView.Adapter {
         return null;
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        // A seen receipt only changes the status line of a sent message
+        if (payloads.contains(MessageDiffCallback.PAYLOAD_SEEN) && holder instanceof SentMessageHolder) {
+            ((SentMessageHolder) holder).bindStatus(getItem(position));
+            return;
+        }
+        super.onBindViewHolder(holder, position, payloads);
+    }
+
     @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
-        Message message = messageList.get(position);
+        Message message = getItem(position);
 
         switch (holder.getItemViewType()) {
             case VIEW_TYPE_MESSAGE_SENT:
@@ -86,11 +134,6 @@ public class MessagesAdapter extends RecyclerView.Adapter {
         }
     }
 
-    @Override
-    public int getItemCount() {
-        return messageList.size();
-    }
-
     private class SentMessageHolder extends RecyclerView.ViewHolder {
         TextView messageText, timeText, statusText;
 
@@ -108,9 +151,13 @@ public class MessagesAdapter extends RecyclerView.Adapter {
             // Format the stored timestamp into a readable String
             timeText.setText(formatTime(message.getTimestamp()));
 
-            // Set the status text based on the 'seen' field
+            bindStatus(message);
+        }
+
+        void bindStatus(Message message) {
+            // Set the status text based on the peer's read watermark
             if (statusText != null) {
-                if (message.isSeen()) {
+                if (isSeen(message)) {
                     statusText.setText("Seen");
                     statusText.setTextColor(context.getResources().getColor(R.color.purple_500));
                 } else {
@@ -144,29 +191,4 @@ public class MessagesAdapter extends RecyclerView.Adapter {
         cal.setTimeInMillis(timestamp);
         return DateFormat.format("hh:mm a", cal).toString();
     }
-
-    // Method to update a single message's seen status
-    public void updateMessageSeenStatus(String messageId, boolean seen) {
-        for (int i = 0; i < messageList.size(); i++) {
-            Message message = messageList.get(i);
-            if (message.getMessageId().equals(messageId) && message.getSenderId().equals(currentUserId)) {
-                message.setSeen(seen);
-                notifyItemChanged(i);
-                break;
-            }
-        }
-    }
-
-    // Method to update all messages to seen
-    public void updateAllMessagesSeenStatus(boolean seen) {
-        boolean updated = false;
-        for (int i = 0; i < messageList.size(); i++) {
-            Message message = messageList.get(i);
-            if (message.getSenderId().equals(currentUserId) && !message.isSeen()) {
-                message.setSeen(seen);
-                updated = true;
-                notifyItemChanged(i);
-            }
-        }
-    }
 }
\ No newline at end of file
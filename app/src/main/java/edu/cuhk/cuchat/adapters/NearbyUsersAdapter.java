@@ -12,12 +12,14 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.engine.GlideException;
 
 import java.util.List;
+import java.util.Objects;
 
 import de.hdodenhof.circleimageview.CircleImageView;
 import edu.cuhk.cuchat.ChatActivity;
@@ -126,6 +128,37 @@ public class NearbyUsersAdapter extends RecyclerView.Adapter<NearbyUsersAdapter.
         }
     }
 
+    // Moves between two results of a live search, so only the rows that changed are rebound
+    public static DiffUtil.DiffResult diff(List<User> oldUsers, List<User> newUsers) {
+        return DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldUsers.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newUsers.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return Objects.equals(oldUsers.get(oldPosition).getUserId(), newUsers.get(newPosition).getUserId());
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                User oldUser = oldUsers.get(oldPosition);
+                User newUser = newUsers.get(newPosition);
+                // Distances are shown to the meter at most
+                return Math.round(oldUser.getDistanceInKm() * 1000) == Math.round(newUser.getDistanceInKm() * 1000)
+                        && Objects.equals(oldUser.getUsername(), newUser.getUsername())
+                        && Objects.equals(oldUser.getStatus(), newUser.getStatus())
+                        && Objects.equals(oldUser.getProfileImageUrl(), newUser.getProfileImageUrl());
+            }
+        });
+    }
+
     @Override
     public int getItemCount() {
         return userList != null ? userList.size() : 0;
@@ -13,11 +13,15 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import de.hdodenhof.circleimageview.CircleImageView;
 import edu.cuhk.cuchat.R;
 import edu.cuhk.cuchat.models.User;
+import edu.cuhk.cuchat.services.PresenceManager;
 
 public class UserSelectionAdapter extends RecyclerView.Adapter<UserSelectionAdapter.UserSelectionViewHolder> {
 
@@ -25,6 +29,9 @@ public class UserSelectionAdapter extends RecyclerView.Adapter<UserSelectionAdap
     private List<User> userList;
     private OnUserSelectedListener listener;
 
+    // Kept apart from the rows, which are recycled and replaced as pages and searches load
+    private final Set<String> selectedUserIds = new HashSet<>();
+
     public interface OnUserSelectedListener {
         void onUserSelected(User user, boolean isSelected);
     }
@@ -35,6 +42,37 @@ public class UserSelectionAdapter extends RecyclerView.Adapter<UserSelectionAdap
         this.listener = listener;
     }
 
+    // Replaces the list, e.g. with the first page of a new search
+    public void setUsers(List<User> users) {
+        userList.clear();
+        userList.addAll(users);
+        notifyDataSetChanged();
+    }
+
+    // Appends the next page, skipping users already shown, e.g. as local search matches
+    public void addUsers(List<User> users) {
+        Set<String> shown = new HashSet<>();
+        for (User user : userList) {
+            shown.add(user.getUserId());
+        }
+        int start = userList.size();
+        for (User user : users) {
+            if (shown.add(user.getUserId())) {
+                userList.add(user);
+            }
+        }
+        notifyItemRangeInserted(start, userList.size() - start);
+    }
+
+    // Rebinds the indicator of the shown users whose presence changed
+    public void applyPresenceChanges(Map<String, Boolean> changes) {
+        for (int i = 0; i < userList.size(); i++) {
+            if (changes.containsKey(userList.get(i).getUserId())) {
+                notifyItemChanged(i);
+            }
+        }
+    }
+
     @NonNull
     @Override
     public UserSelectionViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -59,14 +97,20 @@ public class UserSelectionAdapter extends RecyclerView.Adapter<UserSelectionAdap
             holder.ivProfilePic.setImageResource(R.drawable.ic_launcher_foreground);
         }
 
-        // Show online status indicator
-        holder.ivOnlineStatus.setVisibility(user.isOnline() ? View.VISIBLE : View.GONE);
+        // Show online status indicator, known once the activity's presence subscription has it
+        boolean online = Boolean.TRUE.equals(PresenceManager.getInstance().isOnline(user.getUserId()));
+        holder.ivOnlineStatus.setVisibility(online ? View.VISIBLE : View.GONE);
 
         // Set checkbox click listener
         holder.checkBox.setOnCheckedChangeListener(null); // Clear previous listener
-        holder.checkBox.setChecked(false); // Default unselected
+        holder.checkBox.setChecked(selectedUserIds.contains(user.getUserId()));
 
         holder.checkBox.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (isChecked) {
+                selectedUserIds.add(user.getUserId());
+            } else {
+                selectedUserIds.remove(user.getUserId());
+            }
             if (listener != null) {
                 listener.onUserSelected(user, isChecked);
             }
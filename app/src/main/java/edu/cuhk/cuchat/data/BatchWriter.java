@@ -0,0 +1,166 @@
+package edu.cuhk.cuchat.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies a write to every document matched by a query without holding more than one
+ * page of documents in memory or exceeding Firestore's 500 operations per batch.
+ *
+ * Documents are read page by page with a startAfter cursor. Each page is split into
+ * batches that are committed concurrently, at most maxConcurrentBatches at a time, and
+ * failed reads or commits are retried with exponential backoff before the run gives up.
+ * Callbacks are delivered on the main thread.
+ */
+public class BatchWriter {
+
+    private static final String TAG = "BatchWriter";
+
+    // Firestore rejects batches with more operations than this
+    public static final int MAX_BATCH_SIZE = 500;
+
+    private static final int DEFAULT_CONCURRENT_BATCHES = 4;
+    private static final int DEFAULT_MAX_RETRIES = 3;
+    private static final long INITIAL_BACKOFF_MS = 500;
+
+    // Adds the write for one document to the batch
+    public interface Operation {
+        void apply(WriteBatch batch, DocumentSnapshot document);
+    }
+
+    public interface Callback {
+        void onProgress(int processed);
+
+        void onComplete(int processed);
+
+        void onError(Exception e);
+    }
+
+    private final FirebaseFirestore db;
+    private final int batchSize;
+    private final int maxConcurrentBatches;
+    private final int maxRetries;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public BatchWriter(FirebaseFirestore db) {
+        this(db, MAX_BATCH_SIZE, DEFAULT_CONCURRENT_BATCHES, DEFAULT_MAX_RETRIES);
+    }
+
+    public BatchWriter(FirebaseFirestore db, int batchSize, int maxConcurrentBatches, int maxRetries) {
+        if (batchSize < 1 || batchSize > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("batchSize must be between 1 and " + MAX_BATCH_SIZE);
+        }
+        if (maxConcurrentBatches < 1) {
+            throw new IllegalArgumentException("maxConcurrentBatches must be at least 1");
+        }
+        this.db = db;
+        this.batchSize = batchSize;
+        this.maxConcurrentBatches = maxConcurrentBatches;
+        this.maxRetries = maxRetries;
+    }
+
+    public void deleteAll(Query query, Callback callback) {
+        run(query, (batch, document) -> batch.delete(document.getReference()), callback);
+    }
+
+    public void run(Query query, Operation operation, Callback callback) {
+        new Run(query, operation, callback).fetchPage(null, 0);
+    }
+
+    private class Run {
+        private final Query query;
+        private final Operation operation;
+        private final Callback callback;
+        private int processed = 0;
+
+        Run(Query query, Operation operation, Callback callback) {
+            // Order by document ID so the cursor stays stable while documents are deleted
+            this.query = query.orderBy(FieldPath.documentId())
+                    .limit((long) batchSize * maxConcurrentBatches);
+            this.operation = operation;
+            this.callback = callback;
+        }
+
+        void fetchPage(DocumentSnapshot after, int attempt) {
+            Query page = after != null ? query.startAfter(after) : query;
+            page.get()
+                    .addOnSuccessListener(snapshot -> commitPage(snapshot.getDocuments()))
+                    .addOnFailureListener(e -> {
+                        if (attempt < maxRetries) {
+                            Log.w(TAG, "Reading page failed, retrying", e);
+                            mainHandler.postDelayed(() -> fetchPage(after, attempt + 1), backoff(attempt));
+                        } else {
+                            Log.e(TAG, "Reading page failed after " + processed + " documents", e);
+                            callback.onError(e);
+                        }
+                    });
+        }
+
+        private void commitPage(List<DocumentSnapshot> documents) {
+            if (documents.isEmpty()) {
+                callback.onComplete(processed);
+                return;
+            }
+
+            List<Task<Void>> commits = new ArrayList<>();
+            for (int start = 0; start < documents.size(); start += batchSize) {
+                List<DocumentSnapshot> chunk = documents.subList(start, Math.min(start + batchSize, documents.size()));
+                TaskCompletionSource<Void> result = new TaskCompletionSource<>();
+                commitChunk(chunk, 0, result);
+                commits.add(result.getTask());
+            }
+
+            boolean lastPage = documents.size() < (long) batchSize * maxConcurrentBatches;
+            DocumentSnapshot cursor = documents.get(documents.size() - 1);
+            Tasks.whenAll(commits)
+                    .addOnSuccessListener(aVoid -> {
+                        if (lastPage) {
+                            callback.onComplete(processed);
+                        } else {
+                            fetchPage(cursor, 0);
+                        }
+                    })
+                    .addOnFailureListener(callback::onError);
+        }
+
+        private void commitChunk(List<DocumentSnapshot> chunk, int attempt, TaskCompletionSource<Void> result) {
+            WriteBatch batch = db.batch();
+            for (DocumentSnapshot document : chunk) {
+                operation.apply(batch, document);
+            }
+
+            batch.commit()
+                    .addOnSuccessListener(aVoid -> {
+                        processed += chunk.size();
+                        callback.onProgress(processed);
+                        result.setResult(null);
+                    })
+                    .addOnFailureListener(e -> {
+                        if (attempt < maxRetries) {
+                            Log.w(TAG, "Batch of " + chunk.size() + " failed, retrying", e);
+                            mainHandler.postDelayed(() -> commitChunk(chunk, attempt + 1, result), backoff(attempt));
+                        } else {
+                            Log.e(TAG, "Batch of " + chunk.size() + " failed after " + attempt + " retries", e);
+                            result.setException(e);
+                        }
+                    });
+        }
+    }
+
+    private static long backoff(int attempt) {
+        return INITIAL_BACKOFF_MS << attempt;
+    }
+}
@@ -0,0 +1,141 @@
+package edu.cuhk.cuchat.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One shared listener on the chat documents of the signed-in user, for every screen
+ * that needs the inbox.
+ *
+ * A single participants array-contains query covers one-to-one and group chats, ordered
+ * by lastMessageTimestamp and limited to the newest {@link #CHAT_LIMIT}. The Firestore
+ * listener is attached while at least one subscriber exists. Subscribers that join late
+ * get the current chats replayed, so they do not cost another read. If the listener fails
+ * it is attached again after an exponential backoff, for as long as anyone is subscribed.
+ *
+ * Must be used from the main thread.
+ */
+public class ChatSummaryStream {
+
+    private static final String TAG = "ChatSummaryStream";
+
+    public static final int CHAT_LIMIT = 100;
+
+    private static final long INITIAL_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 60 * 1000;
+
+    public interface Listener {
+        // The current chats, newest first. Called once per subscription, and again
+        // if the stream had to be restarted.
+        void onChatsLoaded(List<DocumentSnapshot> chats);
+
+        // Changes after onChatsLoaded. REMOVED also covers chats that dropped out of
+        // the newest CHAT_LIMIT.
+        void onChatChanges(List<DocumentChange> changes);
+    }
+
+    private static ChatSummaryStream instance;
+
+    private final FirebaseFirestore db;
+    private final List<Listener> listeners = new ArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable reattach = this::attach;
+
+    private String userId;
+    private ListenerRegistration registration;
+    private QuerySnapshot lastSnapshot;
+    private int failedAttempts = 0; // Since the last snapshot, for the backoff
+
+    public static synchronized ChatSummaryStream getInstance() {
+        if (instance == null) {
+            instance = new ChatSummaryStream(FirebaseFirestore.getInstance());
+        }
+        return instance;
+    }
+
+    private ChatSummaryStream(FirebaseFirestore db) {
+        this.db = db;
+    }
+
+    // Remove the returned registration to unsubscribe
+    public ListenerRegistration subscribe(String userId, Listener listener) {
+        if (!userId.equals(this.userId)) {
+            // Signed in as someone else since the stream started
+            detach();
+            this.userId = userId;
+        }
+
+        listeners.add(listener);
+        if (registration == null) {
+            // Also skips the wait of a pending reattach
+            attach();
+        } else if (lastSnapshot != null) {
+            listener.onChatsLoaded(lastSnapshot.getDocuments());
+        }
+
+        return () -> unsubscribe(listener);
+    }
+
+    private void unsubscribe(Listener listener) {
+        if (listeners.remove(listener) && listeners.isEmpty()) {
+            detach();
+        }
+    }
+
+    private void attach() {
+        mainHandler.removeCallbacks(reattach);
+        Log.d(TAG, "Listening for chats of " + userId);
+        registration = db.collection("chats")
+                .whereArrayContains("participants", userId)
+                .orderBy("lastMessageTimestamp", Query.Direction.DESCENDING)
+                .limit(CHAT_LIMIT)
+                .addSnapshotListener((snapshots, error) -> {
+                    if (error != null) {
+                        // Firestore does not call a failed listener again, start over with a new one
+                        long delay = Math.min(INITIAL_BACKOFF_MS << Math.min(failedAttempts, 16), MAX_BACKOFF_MS);
+                        failedAttempts++;
+                        Log.e(TAG, "Listen failed, reattaching in " + delay + " ms", error);
+                        detach();
+                        mainHandler.postDelayed(reattach, delay);
+                        return;
+                    }
+                    if (snapshots == null) {
+                        return;
+                    }
+                    failedAttempts = 0;
+
+                    boolean initial = lastSnapshot == null;
+                    lastSnapshot = snapshots;
+
+                    // Copy, a listener may unsubscribe while being notified
+                    for (Listener listener : new ArrayList<>(listeners)) {
+                        if (initial) {
+                            listener.onChatsLoaded(snapshots.getDocuments());
+                        } else if (!snapshots.getDocumentChanges().isEmpty()) {
+                            listener.onChatChanges(snapshots.getDocumentChanges());
+                        }
+                    }
+                });
+    }
+
+    // Also the start of a reattach, the new listener's first snapshot is delivered as onChatsLoaded
+    private void detach() {
+        mainHandler.removeCallbacks(reattach);
+        if (registration != null) {
+            registration.remove();
+            registration = null;
+        }
+        lastSnapshot = null;
+    }
+}
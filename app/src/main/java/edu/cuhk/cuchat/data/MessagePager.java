@@ -0,0 +1,342 @@
+package edu.cuhk.cuchat.data;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.cuhk.cuchat.models.Message;
+
+/**
+ * Windowed access to the messages subcollection of a chat, backed by {@link MessageStore}.
+ *
+ * On start the newest page is read from disk so the chat renders without waiting for
+ * the network. Only the newest {@link #PAGE_SIZE} messages are kept under a live snapshot
+ * listener, and every delta it reports is written through to the store. Older history is
+ * served from the store while it is known to be contiguous, and fetched from Firestore
+ * with a startAfter cursor only past that point.
+ */
+public class MessagePager {
+
+    private static final String TAG = "MessagePager";
+
+    public static final int PAGE_SIZE = 50;
+
+    // Start fetching the next page when the first visible row gets this close to the top
+    private static final int PREFETCH_DISTANCE = 10;
+
+    public interface Listener {
+        // Replaces everything shown so far, ordered oldest first
+        void onMessagesLoaded(List<Message> messages);
+
+        // Changes to the live window. Documents that merely slid out of the window
+        // because newer messages arrived are not reported as REMOVED.
+        void onLiveChanges(List<DocumentChange> changes);
+
+        // A page of older history, ordered oldest first
+        void onOlderMessages(List<Message> olderMessages);
+    }
+
+    private final String chatId;
+    private final CollectionReference messagesRef;
+    private final MessageStore store;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private ListenerRegistration liveListener;
+    private Message oldestLoaded; // Cursor for the next history page
+    private boolean synced = false; // The live window has been reconciled with the store
+    private boolean loadingOlder = false;
+    private boolean hasMoreHistory = true;
+    private int generation = 0; // Ignores callbacks that belong to a previous start()
+
+    public MessagePager(Context context, FirebaseFirestore db, String chatId, Listener listener) {
+        this.chatId = chatId;
+        this.messagesRef = db.collection("chats").document(chatId).collection("messages");
+        this.store = MessageStore.getInstance(context);
+        this.listener = listener;
+    }
+
+    public void start() {
+        stop();
+
+        final int startGeneration = generation;
+        oldestLoaded = null;
+        synced = false;
+        loadingOlder = false;
+        hasMoreHistory = true;
+
+        // Render straight from disk first
+        store.executor().execute(() -> {
+            List<Message> cached = store.loadLatest(chatId, PAGE_SIZE);
+            mainHandler.post(() -> {
+                if (startGeneration != generation || synced || cached.isEmpty()) {
+                    return;
+                }
+                Log.d(TAG, "Loaded " + cached.size() + " messages from disk for " + chatId);
+                listener.onMessagesLoaded(cached);
+            });
+        });
+
+        liveListener = messagesRef
+                .orderBy("timestamp", Query.Direction.ASCENDING)
+                .limitToLast(PAGE_SIZE)
+                .addSnapshotListener((value, error) -> {
+                    if (startGeneration != generation) {
+                        return;
+                    }
+                    if (error != null) {
+                        Log.e(TAG, "Listen failed for live message window", error);
+                        return;
+                    }
+                    if (value == null) {
+                        Log.e(TAG, "QuerySnapshot is null for live message window");
+                        return;
+                    }
+                    handleLiveSnapshot(value, startGeneration);
+                });
+    }
+
+    public void stop() {
+        generation++;
+        if (liveListener != null) {
+            liveListener.remove();
+            liveListener = null;
+        }
+    }
+
+    public boolean hasMoreHistory() {
+        return hasMoreHistory;
+    }
+
+    // Load older pages automatically while the user scrolls up
+    public void attachTo(RecyclerView recyclerView) {
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+                if (dy >= 0) {
+                    return;
+                }
+                RecyclerView.LayoutManager layoutManager = rv.getLayoutManager();
+                if (layoutManager instanceof LinearLayoutManager
+                        && ((LinearLayoutManager) layoutManager).findFirstVisibleItemPosition() <= PREFETCH_DISTANCE) {
+                    loadOlder();
+                }
+            }
+        });
+    }
+
+    public void loadOlder() {
+        if (!synced || loadingOlder || !hasMoreHistory || oldestLoaded == null) {
+            return;
+        }
+
+        final int requestGeneration = generation;
+        final Message cursor = oldestLoaded;
+        loadingOlder = true;
+
+        store.executor().execute(() -> {
+            MessageStore.SyncRange range = store.getSyncRange(chatId);
+            List<Message> page = range == null ? new ArrayList<>() : store.loadBefore(chatId,
+                    cursor.getTimestamp(), cursor.getMessageId(), range.rangeStart, PAGE_SIZE);
+
+            if (page.size() == PAGE_SIZE || (range != null && range.complete)) {
+                // Everything needed is already on disk
+                boolean exhausted = page.size() < PAGE_SIZE;
+                mainHandler.post(() -> deliverOlder(requestGeneration, page, exhausted));
+            } else {
+                mainHandler.post(() -> fetchOlderFromNetwork(requestGeneration, cursor));
+            }
+        });
+    }
+
+    private void fetchOlderFromNetwork(int requestGeneration, Message cursor) {
+        if (requestGeneration != generation) {
+            return;
+        }
+
+        messagesRef.orderBy("timestamp", Query.Direction.DESCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.DESCENDING)
+                .startAfter(cursor.getTimestamp(), cursor.getMessageId())
+                .limit(PAGE_SIZE)
+                .get()
+                .addOnSuccessListener(snapshot -> {
+                    List<DocumentSnapshot> docs = snapshot.getDocuments();
+
+                    // The query runs newest first, hand the page over oldest first
+                    List<Message> page = new ArrayList<>(docs.size());
+                    for (int i = docs.size() - 1; i >= 0; i--) {
+                        Message message = toMessage(docs.get(i));
+                        if (message != null) {
+                            page.add(message);
+                        }
+                    }
+                    boolean exhausted = docs.size() < PAGE_SIZE;
+
+                    // The page continues the contiguous range downwards
+                    store.executor().execute(() -> {
+                        store.upsertMessages(chatId, page);
+                        long rangeStart = page.isEmpty() ? cursor.getTimestamp() : page.get(0).getTimestamp();
+                        store.setSyncRange(chatId, new MessageStore.SyncRange(exhausted ? 0 : rangeStart, exhausted));
+                    });
+
+                    deliverOlder(requestGeneration, page, exhausted);
+                })
+                .addOnFailureListener(e -> {
+                    if (requestGeneration == generation) {
+                        loadingOlder = false;
+                    }
+                    Log.e(TAG, "Error loading older messages", e);
+                });
+    }
+
+    private void deliverOlder(int requestGeneration, List<Message> page, boolean exhausted) {
+        if (requestGeneration != generation) {
+            return;
+        }
+        loadingOlder = false;
+        if (exhausted) {
+            hasMoreHistory = false;
+        }
+        if (page.isEmpty()) {
+            return;
+        }
+
+        oldestLoaded = page.get(0);
+        Log.d(TAG, "Loaded " + page.size() + " older messages");
+        listener.onOlderMessages(page);
+    }
+
+    private void handleLiveSnapshot(QuerySnapshot value, int startGeneration) {
+        List<DocumentSnapshot> window = value.getDocuments();
+
+        List<DocumentChange> changes = new ArrayList<>();
+        List<Message> upserts = new ArrayList<>();
+        List<String> removals = new ArrayList<>();
+        for (DocumentChange dc : value.getDocumentChanges()) {
+            if (dc.getType() == DocumentChange.Type.REMOVED) {
+                if (slidOutOfWindow(dc.getDocument(), window)) {
+                    // Still exists, it is just older than the newest PAGE_SIZE messages now
+                    continue;
+                }
+                removals.add(dc.getDocument().getId());
+            } else {
+                Message message = toMessage(dc.getDocument());
+                if (message != null) {
+                    upserts.add(message);
+                }
+            }
+            changes.add(dc);
+        }
+
+        if (!synced && value.getMetadata().isFromCache()) {
+            // Firestore's own cache before the server answered, nothing new to persist
+            if (!changes.isEmpty()) {
+                listener.onLiveChanges(changes);
+            }
+            return;
+        }
+
+        if (!synced) {
+            synced = true;
+            reconcileWindow(window, startGeneration);
+            return;
+        }
+
+        // Persist first and deliver from the same queue, so deltas never overtake the
+        // reconciled window on its way to the UI
+        store.executor().execute(() -> {
+            store.upsertMessages(chatId, upserts);
+            store.deleteMessages(chatId, removals);
+            mainHandler.post(() -> {
+                if (startGeneration == generation && !changes.isEmpty()) {
+                    listener.onLiveChanges(changes);
+                }
+            });
+        });
+    }
+
+    // The first server snapshot decides whether the window continues what is stored on
+    // disk. If messages were missed in between, older stored history is no longer known
+    // to be contiguous and will be refetched when the user scrolls up.
+    private void reconcileWindow(List<DocumentSnapshot> window, int startGeneration) {
+        List<Message> windowMessages = new ArrayList<>(window.size());
+        for (DocumentSnapshot doc : window) {
+            Message message = toMessage(doc);
+            if (message != null) {
+                windowMessages.add(message);
+            }
+        }
+        boolean wholeChat = window.size() < PAGE_SIZE;
+        long windowStart = windowMessages.isEmpty() ? 0 : windowMessages.get(0).getTimestamp();
+
+        store.executor().execute(() -> {
+            MessageStore.SyncRange stored = store.getSyncRange(chatId);
+            boolean contiguous = stored != null && store.newestTimestamp(chatId) >= windowStart;
+
+            MessageStore.SyncRange range;
+            if (wholeChat) {
+                range = new MessageStore.SyncRange(0, true);
+            } else if (contiguous) {
+                range = stored;
+            } else {
+                range = new MessageStore.SyncRange(windowStart, false);
+            }
+            store.upsertMessages(chatId, windowMessages);
+            store.setSyncRange(chatId, range);
+
+            mainHandler.post(() -> {
+                if (startGeneration != generation) {
+                    return;
+                }
+                oldestLoaded = windowMessages.isEmpty() ? null : windowMessages.get(0);
+                hasMoreHistory = !wholeChat;
+                listener.onMessagesLoaded(windowMessages);
+            });
+        });
+    }
+
+    // When a new message pushes the oldest one out of a full window, Firestore reports it
+    // as REMOVED. A real deletion inside a full window is backfilled with an older message,
+    // so the window then starts before the removed document.
+    private boolean slidOutOfWindow(DocumentSnapshot removed, List<DocumentSnapshot> window) {
+        if (window.size() < PAGE_SIZE) {
+            return false;
+        }
+        return timestampOf(removed) <= timestampOf(window.get(0));
+    }
+
+    private static long timestampOf(DocumentSnapshot doc) {
+        Long timestamp = doc.getLong("timestamp");
+        return timestamp != null ? timestamp : 0L;
+    }
+
+    public static Message toMessage(DocumentSnapshot doc) {
+        try {
+            Message message = doc.toObject(Message.class);
+            if (message != null) {
+                message.setMessageId(doc.getId());
+            }
+            return message;
+        } catch (Exception e) {
+            Log.e(TAG, "Error converting message " + doc.getId(), e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package edu.cuhk.cuchat.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import edu.cuhk.cuchat.models.Message;
+
+/**
+ * On-device copy of chat messages, keyed by chatId/messageId and ordered by timestamp.
+ *
+ * Besides the messages themselves the store remembers, per chat, the oldest timestamp
+ * from which the local copy is known to be contiguous up to the newest message. Pages
+ * inside that range can be served from disk without asking Firestore.
+ *
+ * All methods do disk I/O and must be called on {@link #executor()}.
+ */
+public class MessageStore extends SQLiteOpenHelper {
+
+    private static final String TAG = "MessageStore";
+
+    private static final String DATABASE_NAME = "messages.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE_MESSAGES = "messages";
+    private static final String TABLE_SYNC_STATE = "sync_state";
+
+    private static final String COL_CHAT_ID = "chat_id";
+    private static final String COL_MESSAGE_ID = "message_id";
+    private static final String COL_SENDER_ID = "sender_id";
+    private static final String COL_RECEIVER_ID = "receiver_id";
+    private static final String COL_CONTENT = "content";
+    private static final String COL_TIMESTAMP = "timestamp";
+    private static final String COL_SEEN = "seen";
+    private static final String COL_IS_SYSTEM = "is_system";
+    private static final String COL_SEEN_BY = "seen_by";
+
+    private static final String COL_RANGE_START = "range_start";
+    private static final String COL_COMPLETE = "complete";
+
+    private static MessageStore instance;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    // Contiguous range of a chat that is mirrored locally
+    public static class SyncRange {
+        public final long rangeStart;
+        public final boolean complete; // rangeStart is the beginning of the conversation
+
+        public SyncRange(long rangeStart, boolean complete) {
+            this.rangeStart = rangeStart;
+            this.complete = complete;
+        }
+    }
+
+    public static synchronized MessageStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MessageStore(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    public ExecutorService executor() {
+        return executor;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_MESSAGES + " ("
+                + COL_CHAT_ID + " TEXT NOT NULL, "
+                + COL_MESSAGE_ID + " TEXT NOT NULL, "
+                + COL_SENDER_ID + " TEXT, "
+                + COL_RECEIVER_ID + " TEXT, "
+                + COL_CONTENT + " TEXT, "
+                + COL_TIMESTAMP + " INTEGER NOT NULL, "
+                + COL_SEEN + " INTEGER NOT NULL DEFAULT 0, "
+                + COL_IS_SYSTEM + " INTEGER NOT NULL DEFAULT 0, "
+                + COL_SEEN_BY + " TEXT, "
+                + "PRIMARY KEY (" + COL_CHAT_ID + ", " + COL_MESSAGE_ID + "))");
+        db.execSQL("CREATE INDEX idx_messages_chat_time ON " + TABLE_MESSAGES
+                + " (" + COL_CHAT_ID + ", " + COL_TIMESTAMP + ", " + COL_MESSAGE_ID + ")");
+        db.execSQL("CREATE TABLE " + TABLE_SYNC_STATE + " ("
+                + COL_CHAT_ID + " TEXT PRIMARY KEY, "
+                + COL_RANGE_START + " INTEGER NOT NULL, "
+                + COL_COMPLETE + " INTEGER NOT NULL DEFAULT 0)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The store is only a cache of Firestore, it is safe to rebuild it
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_MESSAGES);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SYNC_STATE);
+        onCreate(db);
+    }
+
+    public void upsertMessages(String chatId, List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Message message : messages) {
+                db.insertWithOnConflict(TABLE_MESSAGES, null, toValues(chatId, message),
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(TAG, "Error storing messages for chat " + chatId, e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void deleteMessages(String chatId, List<String> messageIds) {
+        if (messageIds.isEmpty()) {
+            return;
+        }
+
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String messageId : messageIds) {
+                db.delete(TABLE_MESSAGES, COL_CHAT_ID + " = ? AND " + COL_MESSAGE_ID + " = ?",
+                        new String[]{chatId, messageId});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void deleteChat(String chatId) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.delete(TABLE_MESSAGES, COL_CHAT_ID + " = ?", new String[]{chatId});
+        db.delete(TABLE_SYNC_STATE, COL_CHAT_ID + " = ?", new String[]{chatId});
+    }
+
+    // Newest messages of a chat, returned oldest first
+    public List<Message> loadLatest(String chatId, int limit) {
+        Cursor cursor = getReadableDatabase().query(TABLE_MESSAGES, null,
+                COL_CHAT_ID + " = ?", new String[]{chatId},
+                null, null,
+                COL_TIMESTAMP + " DESC, " + COL_MESSAGE_ID + " DESC",
+                String.valueOf(limit));
+        return readNewestFirst(cursor);
+    }
+
+    // Messages ordered before (timestamp, messageId) and not older than minTimestamp, oldest first
+    public List<Message> loadBefore(String chatId, long timestamp, String messageId, long minTimestamp, int limit) {
+        Cursor cursor = getReadableDatabase().query(TABLE_MESSAGES, null,
+                COL_CHAT_ID + " = ? AND " + COL_TIMESTAMP + " >= ? AND ("
+                        + COL_TIMESTAMP + " < ? OR (" + COL_TIMESTAMP + " = ? AND " + COL_MESSAGE_ID + " < ?))",
+                new String[]{chatId, String.valueOf(minTimestamp), String.valueOf(timestamp),
+                        String.valueOf(timestamp), messageId},
+                null, null,
+                COL_TIMESTAMP + " DESC, " + COL_MESSAGE_ID + " DESC",
+                String.valueOf(limit));
+        return readNewestFirst(cursor);
+    }
+
+    // Timestamp of the newest stored message, or -1 if nothing is stored for the chat
+    public long newestTimestamp(String chatId) {
+        Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT MAX(" + COL_TIMESTAMP + ") FROM " + TABLE_MESSAGES + " WHERE " + COL_CHAT_ID + " = ?",
+                new String[]{chatId});
+        try {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+            return -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public SyncRange getSyncRange(String chatId) {
+        Cursor cursor = getReadableDatabase().query(TABLE_SYNC_STATE,
+                new String[]{COL_RANGE_START, COL_COMPLETE},
+                COL_CHAT_ID + " = ?", new String[]{chatId}, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                return new SyncRange(cursor.getLong(0), cursor.getInt(1) != 0);
+            }
+            return null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void setSyncRange(String chatId, SyncRange range) {
+        ContentValues values = new ContentValues();
+        values.put(COL_CHAT_ID, chatId);
+        values.put(COL_RANGE_START, range.rangeStart);
+        values.put(COL_COMPLETE, range.complete ? 1 : 0);
+        getWritableDatabase().insertWithOnConflict(TABLE_SYNC_STATE, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private List<Message> readNewestFirst(Cursor cursor) {
+        List<Message> messages = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                messages.add(fromCursor(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    private static ContentValues toValues(String chatId, Message message) {
+        ContentValues values = new ContentValues();
+        values.put(COL_CHAT_ID, chatId);
+        values.put(COL_MESSAGE_ID, message.getMessageId());
+        values.put(COL_SENDER_ID, message.getSenderId());
+        values.put(COL_RECEIVER_ID, message.getReceiverId());
+        values.put(COL_CONTENT, message.getContent());
+        values.put(COL_TIMESTAMP, message.getTimestamp());
+        values.put(COL_SEEN, message.isSeen() ? 1 : 0);
+        values.put(COL_IS_SYSTEM, message.isSystemMessage() ? 1 : 0);
+        if (message.getSeenBy() != null) {
+            values.put(COL_SEEN_BY, new JSONObject(message.getSeenBy()).toString());
+        }
+        return values;
+    }
+
+    private static Message fromCursor(Cursor cursor) {
+        Message message = new Message(
+                cursor.getString(cursor.getColumnIndexOrThrow(COL_MESSAGE_ID)),
+                cursor.getString(cursor.getColumnIndexOrThrow(COL_SENDER_ID)),
+                cursor.getString(cursor.getColumnIndexOrThrow(COL_RECEIVER_ID)),
+                cursor.getString(cursor.getColumnIndexOrThrow(COL_CONTENT)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(COL_TIMESTAMP)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(COL_SEEN)) != 0,
+                cursor.getInt(cursor.getColumnIndexOrThrow(COL_IS_SYSTEM)) != 0);
+
+        String seenByJson = cursor.getString(cursor.getColumnIndexOrThrow(COL_SEEN_BY));
+        if (seenByJson != null) {
+            try {
+                JSONObject json = new JSONObject(seenByJson);
+                Map<String, Boolean> seenBy = new HashMap<>();
+                Iterator<String> keys = json.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    seenBy.put(key, json.optBoolean(key));
+                }
+                message.setSeenBy(seenBy);
+            } catch (JSONException e) {
+                Log.w(TAG, "Ignoring malformed seenBy for message " + message.getMessageId(), e);
+            }
+        }
+        return message;
+    }
+}
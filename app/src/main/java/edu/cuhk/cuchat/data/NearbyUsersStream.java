@@ -0,0 +1,260 @@
+package edu.cuhk.cuchat.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.GeoPoint;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.cuhk.cuchat.utils.GeoHash;
+
+/**
+ * Live set of the users within a radius of a point, from snapshot listeners on the
+ * geohash cells that cover the circle.
+ *
+ * Moving the circle only detaches the cells that no longer cover it and attaches the new
+ * ones, so a user walking around costs reads for the cells they walk into rather than a
+ * new scan. The listener gets deltas: users that entered the circle or moved inside it,
+ * and users that left it. After each {@link #setArea} the listener is called once every
+ * new cell has reported, even with nothing changed, so the first delivery is complete.
+ * A cell whose listener fails is dropped and attached again after a backoff.
+ *
+ * Must be used from the main thread.
+ */
+public class NearbyUsersStream {
+
+    private static final String TAG = "NearbyUsersStream";
+    private static final long INITIAL_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 60 * 1000;
+
+    public interface Listener {
+        // entered holds users that entered or moved within the circle, by ID
+        void onNearbyChanged(Map<String, DocumentSnapshot> entered, Set<String> left);
+    }
+
+    private final FirebaseFirestore db;
+    private final String currentUserId;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final Map<String, ListenerRegistration> cellListeners = new HashMap<>();
+    private final Map<String, Runnable> reattachments = new HashMap<>(); // Failed cells waiting to attach again
+    private final Map<String, Integer> failedAttempts = new HashMap<>(); // Since the cell's last snapshot
+    private final Map<String, Set<String>> cellMembers = new HashMap<>();
+    private final Set<String> pendingCells = new HashSet<>(); // Attached, first snapshot not in yet
+    private final Map<String, DocumentSnapshot> documents = new HashMap<>(); // Everyone in the cells
+    private final Set<String> inside = new HashSet<>();
+
+    // Collected until pendingCells is empty
+    private final Map<String, DocumentSnapshot> entered = new LinkedHashMap<>();
+    private final Set<String> left = new HashSet<>();
+
+    private double centerLat;
+    private double centerLng;
+    private double radiusKm;
+    private boolean settling; // setArea was called and has not been answered yet
+
+    public NearbyUsersStream(FirebaseFirestore db, String currentUserId, Listener listener) {
+        this.db = db;
+        this.currentUserId = currentUserId;
+        this.listener = listener;
+    }
+
+    public boolean isActive() {
+        return !cellListeners.isEmpty() || !reattachments.isEmpty();
+    }
+
+    // Moves or resizes the circle, attaching and detaching only the cells that changed
+    public void setArea(double lat, double lng, double radiusKm) {
+        this.centerLat = lat;
+        this.centerLng = lng;
+        this.radiusKm = radiusKm;
+        settling = true;
+
+        List<String> cells = GeoHash.coveringPrefixes(lat, lng, radiusKm);
+        for (String cell : new ArrayList<>(cellListeners.keySet())) {
+            if (!cells.contains(cell)) {
+                detach(cell);
+                failedAttempts.remove(cell);
+            }
+        }
+        for (String cell : new ArrayList<>(reattachments.keySet())) {
+            if (!cells.contains(cell)) {
+                cancelReattach(cell);
+            }
+        }
+        for (String cell : cells) {
+            // A failed cell keeps its backoff rather than being attached again right away
+            if (!cellListeners.containsKey(cell) && !reattachments.containsKey(cell)) {
+                attach(cell);
+            }
+        }
+
+        // The circle moved over the users already known
+        for (String userId : documents.keySet()) {
+            evaluate(userId, false);
+        }
+        deliver();
+    }
+
+    public void stop() {
+        for (ListenerRegistration registration : cellListeners.values()) {
+            registration.remove();
+        }
+        cellListeners.clear();
+        for (Runnable reattach : reattachments.values()) {
+            mainHandler.removeCallbacks(reattach);
+        }
+        reattachments.clear();
+        failedAttempts.clear();
+        cellMembers.clear();
+        pendingCells.clear();
+        documents.clear();
+        inside.clear();
+        entered.clear();
+        left.clear();
+        settling = false;
+    }
+
+    private void attach(String cell) {
+        Log.d(TAG, "Listening to cell " + cell);
+        cellMembers.put(cell, new HashSet<>());
+        pendingCells.add(cell);
+        cellListeners.put(cell, db.collection("users")
+                .orderBy("geohash")
+                .startAt(cell)
+                .endAt(cell + GeoHash.END_SUFFIX)
+                .addSnapshotListener((snapshots, error) -> {
+                    if (!cellListeners.containsKey(cell)) {
+                        return;
+                    }
+                    if (error != null) {
+                        // Firestore does not call a failed listener again, start over with a new one
+                        int attempts = failedAttempts.containsKey(cell) ? failedAttempts.get(cell) : 0;
+                        long delay = Math.min(INITIAL_BACKOFF_MS << Math.min(attempts, 16), MAX_BACKOFF_MS);
+                        failedAttempts.put(cell, attempts + 1);
+                        Log.e(TAG, "Listen failed for cell " + cell + ", reattaching in " + delay + " ms", error);
+                        detach(cell);
+                        scheduleReattach(cell, delay);
+                        deliver();
+                        return;
+                    }
+                    if (snapshots == null) {
+                        return;
+                    }
+                    failedAttempts.remove(cell);
+
+                    Set<String> members = cellMembers.get(cell);
+                    for (DocumentChange change : snapshots.getDocumentChanges()) {
+                        DocumentSnapshot document = change.getDocument();
+                        String userId = document.getId();
+                        if (userId.equals(currentUserId)) {
+                            continue;
+                        }
+
+                        if (change.getType() == DocumentChange.Type.REMOVED) {
+                            // Moved out of this cell, or deleted
+                            members.remove(userId);
+                            forgetIfUnlisted(userId);
+                        } else {
+                            members.add(userId);
+                            documents.put(userId, document);
+                            evaluate(userId, true);
+                        }
+                    }
+
+                    pendingCells.remove(cell);
+                    deliver();
+                }));
+    }
+
+    private void detach(String cell) {
+        ListenerRegistration registration = cellListeners.remove(cell);
+        if (registration != null) {
+            registration.remove();
+        }
+        pendingCells.remove(cell);
+
+        Set<String> members = cellMembers.remove(cell);
+        if (members != null) {
+            for (String userId : members) {
+                forgetIfUnlisted(userId);
+            }
+        }
+    }
+
+    private void scheduleReattach(String cell, long delay) {
+        Runnable reattach = () -> {
+            reattachments.remove(cell);
+            attach(cell);
+        };
+        reattachments.put(cell, reattach);
+        mainHandler.postDelayed(reattach, delay);
+    }
+
+    // For a cell that no longer covers the circle
+    private void cancelReattach(String cell) {
+        Runnable reattach = reattachments.remove(cell);
+        if (reattach != null) {
+            mainHandler.removeCallbacks(reattach);
+        }
+        failedAttempts.remove(cell);
+    }
+
+    // Drops a user no cell lists anymore
+    private void forgetIfUnlisted(String userId) {
+        for (Set<String> members : cellMembers.values()) {
+            if (members.contains(userId)) {
+                return;
+            }
+        }
+        documents.remove(userId);
+        if (inside.remove(userId)) {
+            entered.remove(userId);
+            left.add(userId);
+        }
+    }
+
+    // changed is true when the document itself was updated, not just the circle moved
+    private void evaluate(String userId, boolean changed) {
+        DocumentSnapshot document = documents.get(userId);
+        GeoPoint location = document != null ? document.getGeoPoint("location") : null;
+        boolean within = location != null && GeoHash.distanceKm(centerLat, centerLng,
+                location.getLatitude(), location.getLongitude()) <= radiusKm;
+
+        if (within) {
+            // Entered, or moved inside the circle
+            if (inside.add(userId) || changed) {
+                entered.put(userId, document);
+                left.remove(userId);
+            }
+        } else if (inside.remove(userId)) {
+            entered.remove(userId);
+            left.add(userId);
+        }
+    }
+
+    private void deliver() {
+        if (!pendingCells.isEmpty() || (entered.isEmpty() && left.isEmpty() && !settling)) {
+            return;
+        }
+        settling = false;
+        Map<String, DocumentSnapshot> enteredNow = new LinkedHashMap<>(entered);
+        Set<String> leftNow = new HashSet<>(left);
+        entered.clear();
+        left.clear();
+        listener.onNearbyChanged(enteredNow, leftNow);
+    }
+}
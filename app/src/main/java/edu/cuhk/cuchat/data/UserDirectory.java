@@ -0,0 +1,163 @@
+package edu.cuhk.cuchat.data;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.cuhk.cuchat.models.User;
+
+/**
+ * Pages through the users collection in username order, optionally narrowed to a
+ * username prefix.
+ *
+ * Each {@link #search} reads a single page of {@link #PAGE_SIZE} users, and further pages
+ * are fetched with a startAfter cursor as the list is scrolled, so the cost of showing the
+ * directory does not grow with the number of users. Every document read also refreshes
+ * {@link UserProfileCache}.
+ *
+ * Prefix matching is done by Firestore on the stored username, so it is case sensitive.
+ * Must be used from the main thread.
+ */
+public class UserDirectory {
+
+    private static final String TAG = "UserDirectory";
+
+    public static final int PAGE_SIZE = 30;
+
+    // Start fetching the next page when the last visible row gets this close to the end
+    private static final int PREFETCH_DISTANCE = 10;
+
+    // Sorts after every character a username is likely to contain, for the end of a prefix range
+    private static final String END_SUFFIX = "\uf8ff";
+
+    public interface Listener {
+        // The first page for the query, replaces everything shown so far
+        void onUsersLoaded(String query, List<User> users);
+
+        // The next page for the same query, to be appended
+        void onMoreUsers(List<User> users);
+
+        void onError(Exception e);
+    }
+
+    private final FirebaseFirestore db;
+    private final String currentUserId;
+    private final Listener listener;
+
+    private String query = "";
+    private DocumentSnapshot lastLoaded; // Cursor for the next page
+    private boolean loading = false;
+    private boolean hasMore = true;
+    private int generation = 0; // Ignores pages that belong to a previous search()
+
+    public UserDirectory(FirebaseFirestore db, String currentUserId, Listener listener) {
+        this.db = db;
+        this.currentUserId = currentUserId;
+        this.listener = listener;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    // Starts over with the users whose username starts with prefix, or everyone if it is empty
+    public void search(String prefix) {
+        generation++;
+        query = prefix != null ? prefix.trim() : "";
+        lastLoaded = null;
+        loading = false;
+        hasMore = true;
+        fetchPage();
+    }
+
+    public void loadMore() {
+        if (loading || !hasMore || lastLoaded == null) {
+            return;
+        }
+        fetchPage();
+    }
+
+    // Load the next page automatically while the user scrolls down
+    public void attachTo(RecyclerView recyclerView) {
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+                if (dy <= 0) {
+                    return;
+                }
+                RecyclerView.LayoutManager layoutManager = rv.getLayoutManager();
+                if (layoutManager instanceof LinearLayoutManager
+                        && ((LinearLayoutManager) layoutManager).findLastVisibleItemPosition()
+                        >= layoutManager.getItemCount() - PREFETCH_DISTANCE) {
+                    loadMore();
+                }
+            }
+        });
+    }
+
+    private void fetchPage() {
+        final int requestGeneration = generation;
+        final boolean firstPage = lastLoaded == null;
+        loading = true;
+
+        Query page = db.collection("users").orderBy("username");
+        if (!query.isEmpty()) {
+            page = page.startAt(query).endAt(query + END_SUFFIX);
+        }
+        if (lastLoaded != null) {
+            page = page.startAfter(lastLoaded);
+        }
+
+        page.limit(PAGE_SIZE)
+                .get()
+                .addOnSuccessListener(snapshot -> {
+                    if (requestGeneration != generation) {
+                        return;
+                    }
+                    loading = false;
+
+                    List<DocumentSnapshot> documents = snapshot.getDocuments();
+                    hasMore = documents.size() == PAGE_SIZE;
+                    if (!documents.isEmpty()) {
+                        lastLoaded = documents.get(documents.size() - 1);
+                    }
+
+                    UserProfileCache profileCache = UserProfileCache.getInstance();
+                    List<User> users = new ArrayList<>(documents.size());
+                    for (DocumentSnapshot document : documents) {
+                        profileCache.update(document);
+                        if (!document.getId().equals(currentUserId)) {
+                            users.add(UserProfileCache.toUser(document));
+                        }
+                    }
+
+                    Log.d(TAG, "Loaded " + users.size() + " users for \"" + query + "\"");
+                    if (firstPage) {
+                        listener.onUsersLoaded(query, users);
+                    } else {
+                        listener.onMoreUsers(users);
+                    }
+                })
+                .addOnFailureListener(e -> {
+                    if (requestGeneration != generation) {
+                        return;
+                    }
+                    loading = false;
+                    Log.e(TAG, "Error loading users for \"" + query + "\"", e);
+                    listener.onError(e);
+                });
+    }
+}
@@ -0,0 +1,240 @@
+package edu.cuhk.cuchat.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.cuhk.cuchat.models.User;
+import edu.cuhk.cuchat.utils.SearchIndex;
+
+/**
+ * Process-wide cache of user profiles, shared by every screen that shows names or avatars.
+ *
+ * Lookups requested during the same main loop turn are collected and fetched together
+ * with whereIn(documentId) queries of up to {@link #MAX_IDS_PER_QUERY} IDs, and a lookup
+ * for an ID that is already being fetched waits for that fetch. Results, including users
+ * that do not exist, are kept for a TTL in an LRU map of at most {@link #MAX_ENTRIES}.
+ *
+ * Nothing listens for profile changes: another user's edit shows up once the entry's TTL
+ * runs out. Entries are refreshed earlier from user documents a screen reads anyway (see
+ * {@link UserDirectory}) and invalidated after the current user edits their profile.
+ * Cached profiles are also indexed by username and email for {@link #search}, which never
+ * waits on Firestore.
+ *
+ * Callbacks are delivered on the main thread.
+ */
+public class UserProfileCache {
+
+    private static final String TAG = "UserProfileCache";
+
+    // Firestore's limit for the number of values in a whereIn filter
+    public static final int MAX_IDS_PER_QUERY = 30;
+
+    public static final int MAX_ENTRIES = 500;
+
+    private static final long TTL_MS = 5 * 60 * 1000;
+
+    public interface Callback {
+        // user is null if the profile does not exist or could not be loaded
+        void onProfileResolved(String userId, @Nullable User user);
+    }
+
+    private static class Entry {
+        final User user;
+        final long loadedAt;
+
+        Entry(User user, long loadedAt) {
+            this.user = user;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private static UserProfileCache instance;
+
+    private final FirebaseFirestore db;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Usernames and emails of the cached profiles, follows every change to profiles
+    private final SearchIndex searchIndex = new SearchIndex();
+
+    // Access ordered, so the eldest entry is the least recently used one
+    private final Map<String, Entry> profiles = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > MAX_ENTRIES) {
+                searchIndex.remove(eldest.getKey());
+                return true;
+            }
+            return false;
+        }
+    };
+    private final Map<String, List<Callback>> waiting = new HashMap<>(); // Queued or in flight
+    private final Set<String> queued = new LinkedHashSet<>();
+    private boolean flushScheduled = false;
+
+    public static synchronized UserProfileCache getInstance() {
+        if (instance == null) {
+            instance = new UserProfileCache(FirebaseFirestore.getInstance());
+        }
+        return instance;
+    }
+
+    private UserProfileCache(FirebaseFirestore db) {
+        this.db = db;
+    }
+
+    public void resolve(String userId, Callback callback) {
+        if (!onMainThread()) {
+            // e.g. FirebaseMessagingService callbacks
+            mainHandler.post(() -> resolve(userId, callback));
+            return;
+        }
+
+        Entry entry = profiles.get(userId);
+        if (entry != null && SystemClock.elapsedRealtime() - entry.loadedAt < TTL_MS) {
+            callback.onProfileResolved(userId, entry.user);
+            return;
+        }
+
+        List<Callback> callbacks = waiting.get(userId);
+        if (callbacks != null) {
+            callbacks.add(callback);
+            return;
+        }
+
+        callbacks = new ArrayList<>();
+        callbacks.add(callback);
+        waiting.put(userId, callbacks);
+        queued.add(userId);
+
+        if (!flushScheduled) {
+            flushScheduled = true;
+            mainHandler.post(this::flush);
+        }
+    }
+
+    // Refresh an entry from a user document read elsewhere
+    public void update(DocumentSnapshot doc) {
+        if (!onMainThread()) {
+            mainHandler.post(() -> update(doc));
+            return;
+        }
+        store(doc.getId(), doc.exists() ? toUser(doc) : null, SystemClock.elapsedRealtime());
+    }
+
+    public void invalidate(String userId) {
+        if (!onMainThread()) {
+            mainHandler.post(() -> invalidate(userId));
+            return;
+        }
+        profiles.remove(userId);
+        searchIndex.remove(userId);
+    }
+
+    // Cached profiles matching the query by username or email, best first. Main thread only.
+    public List<User> search(String query, int limit) {
+        List<User> users = new ArrayList<>();
+        for (String userId : searchIndex.search(query, limit)) {
+            Entry entry = profiles.get(userId);
+            if (entry != null && entry.user != null) {
+                users.add(entry.user);
+            }
+        }
+        return users;
+    }
+
+    private void flush() {
+        flushScheduled = false;
+
+        List<String> ids = new ArrayList<>(queued);
+        queued.clear();
+        for (int start = 0; start < ids.size(); start += MAX_IDS_PER_QUERY) {
+            fetch(ids.subList(start, Math.min(start + MAX_IDS_PER_QUERY, ids.size())));
+        }
+    }
+
+    private void fetch(List<String> ids) {
+        final List<String> chunk = new ArrayList<>(ids);
+        Log.d(TAG, "Fetching " + chunk.size() + " profiles");
+
+        db.collection("users")
+                .whereIn(FieldPath.documentId(), chunk)
+                .get()
+                .addOnSuccessListener(snapshot -> {
+                    long now = SystemClock.elapsedRealtime();
+                    Map<String, User> found = new HashMap<>();
+                    for (DocumentSnapshot doc : snapshot.getDocuments()) {
+                        found.put(doc.getId(), toUser(doc));
+                    }
+
+                    // IDs without a document are cached as missing too
+                    for (String userId : chunk) {
+                        User user = found.get(userId);
+                        store(userId, user, now);
+                        deliver(userId, user);
+                    }
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Error fetching profiles", e);
+                    for (String userId : chunk) {
+                        deliver(userId, null);
+                    }
+                });
+    }
+
+    private void store(String userId, @Nullable User user, long loadedAt) {
+        profiles.put(userId, new Entry(user, loadedAt));
+        if (user != null) {
+            // Only the local part of the email, the domain would match everyone
+            String email = user.getEmail();
+            String emailName = email != null && email.contains("@") ? email.substring(0, email.indexOf('@')) : email;
+            searchIndex.put(userId, user.getUsername(), emailName);
+        } else {
+            searchIndex.remove(userId);
+        }
+    }
+
+    private void deliver(String userId, User user) {
+        List<Callback> callbacks = waiting.remove(userId);
+        if (callbacks == null) {
+            return;
+        }
+        for (Callback callback : callbacks) {
+            callback.onProfileResolved(userId, user);
+        }
+    }
+
+    private static boolean onMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    // Read field by field. Online state is not part of the profile, it comes from PresenceManager.
+    public static User toUser(DocumentSnapshot doc) {
+        User user = new User();
+        user.setUserId(doc.getId());
+        user.setUsername(doc.getString("username"));
+        user.setEmail(doc.getString("email"));
+        user.setProfileImageUrl(doc.getString("profileImageUrl"));
+        user.setBio(doc.getString("bio"));
+        user.setStatus(doc.getString("status"));
+        user.setFcmToken(doc.getString("fcmToken"));
+        Long createdAt = doc.getLong("createdAt");
+        user.setCreatedAt(createdAt != null ? createdAt : 0L);
+        return user;
+    }
+}
@@ -2,10 +2,13 @@ package edu.cuhk.cuchat.fragments;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -20,22 +23,24 @@ import com.google.android.material.tabs.TabLayout;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.ListenerRegistration;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
-import com.google.firebase.firestore.QuerySnapshot;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import edu.cuhk.cuchat.GroupCreationActivity;
 import edu.cuhk.cuchat.R;
 import edu.cuhk.cuchat.adapters.ChatListAdapter;
+import edu.cuhk.cuchat.data.ChatSummaryStream;
+import edu.cuhk.cuchat.data.UserProfileCache;
 import edu.cuhk.cuchat.models.ChatListItem;
+import edu.cuhk.cuchat.services.PresenceManager;
+import edu.cuhk.cuchat.utils.ChatIndex;
+import edu.cuhk.cuchat.utils.FrameBatcher;
+import edu.cuhk.cuchat.utils.SearchIndex;
 
 public class ChatsFragment extends Fragment {
 
@@ -44,19 +49,30 @@ public class ChatsFragment extends Fragment {
     private RecyclerView rvChats;
     private TextView tvNoChats;
     private ChatListAdapter chatListAdapter;
-    private List<ChatListItem> chatList;
-    private Map<String, ChatListItem> chatMap;
+    private List<ChatListItem> chatList; // The view of chatIndex for the selected tab
+    private ChatIndex chatIndex;
+
+    // Chat updates are applied at most once per frame. Bigger batches, and full reloads,
+    // are published with one notifyDataSetChanged instead of row by row.
+    private static final int BULK_UPDATE_THRESHOLD = 20;
+    private final FrameBatcher<String, ChatListItem> chatUpdates = new FrameBatcher<>(0, this::applyChatUpdates);
+    private boolean resetPending = false; // The next batch replaces the whole index
     private TabLayout tabLayoutChatFilter;
     private FloatingActionButton fabCreateGroupChat;
 
+    // Chat names of everything in chatIndex, searched on every keystroke
+    private static final int MAX_SEARCH_RESULTS = 100;
+    private final SearchIndex chatSearch = new SearchIndex();
+    private EditText etSearchChats;
+    private String searchQuery = "";
+
     private FirebaseAuth mAuth;
     private FirebaseFirestore db;
     private FirebaseUser currentUser;
     private String currentUserId;
-    private ListenerRegistration chatListener1;
-    private ListenerRegistration chatListener2;
-    private ListenerRegistration groupChatsListener;
-    private Map<String, ListenerRegistration> userStatusListeners = new HashMap<>();
+    private ListenerRegistration chatsSubscription;
+    private PresenceManager.Subscription presence;
+    private UserProfileCache profileCache;
 
     private int currentTabPosition = 0;
 
@@ -86,6 +102,7 @@ public class ChatsFragment extends Fragment {
             // Initialize Firebase
             mAuth = FirebaseAuth.getInstance();
             db = FirebaseFirestore.getInstance();
+            profileCache = UserProfileCache.getInstance();
             currentUser = mAuth.getCurrentUser();
 
             if (currentUser == null) {
@@ -138,6 +155,26 @@ public class ChatsFragment extends Fragment {
             // Find the create group FAB
             fabCreateGroupChat = view.findViewById(R.id.fabCreateGroupChat);
 
+            // Search field, only in activity_chat_list
+            etSearchChats = view.findViewById(R.id.etSearchChats);
+            if (etSearchChats != null) {
+                etSearchChats.addTextChangedListener(new TextWatcher() {
+                    @Override
+                    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+                    }
+
+                    @Override
+                    public void onTextChanged(CharSequence s, int start, int before, int count) {
+                    }
+
+                    @Override
+                    public void afterTextChanged(Editable s) {
+                        searchQuery = s.toString().trim();
+                        filterChats();
+                    }
+                });
+            }
+
             if (rvChats == null) {
                 Log.e(TAG, "rvChats view not found");
                 Toast.makeText(getContext(), "Error: Chat list view not found", Toast.LENGTH_SHORT).show();
@@ -181,8 +218,8 @@ public class ChatsFragment extends Fragment {
 
     private void initializeAdapter() {
         try {
-            chatList = new ArrayList<>();
-            chatMap = new HashMap<>();
+            chatIndex = new ChatIndex();
+            chatList = chatIndex.view(ChatIndex.VIEW_ALL);
             chatListAdapter = new ChatListAdapter(requireContext(), chatList);
 
             if (rvChats != null) {
@@ -202,44 +239,32 @@ public class ChatsFragment extends Fragment {
         }
 
         try {
-            // Remove any existing listeners
-            if (chatListener1 != null) {
-                chatListener1.remove();
-            }
-            if (chatListener2 != null) {
-                chatListener2.remove();
-            }
-            if (groupChatsListener != null) {
-                groupChatsListener.remove();
+            // Remove any existing subscription
+            if (chatsSubscription != null) {
+                chatsSubscription.remove();
             }
 
             // Clear existing data
-            chatList.clear();
-            chatMap.clear();
+            chatUpdates.cancel();
+            resetPending = false;
+            chatIndex.clear();
+            chatSearch.clear();
             if (chatListAdapter != null) {
                 chatListAdapter.notifyDataSetChanged();
             }
 
-            // Set up the first listener - for chats where current user is user1Id
-            chatListener1 = db.collection("chats")
-                    .whereEqualTo("user1Id", currentUserId)
-                    .addSnapshotListener((snapshots, error) -> {
-                        handleChatSnapshot(snapshots, error);
-                    });
-
-            // Set up the second listener - for chats where current user is user2Id
-            chatListener2 = db.collection("chats")
-                    .whereEqualTo("user2Id", currentUserId)
-                    .addSnapshotListener((snapshots, error) -> {
-                        handleChatSnapshot(snapshots, error);
-                    });
+            // One-to-one and group chats both come from the shared participants query
+            chatsSubscription = ChatSummaryStream.getInstance().subscribe(currentUserId,
+                    new ChatSummaryStream.Listener() {
+                        @Override
+                        public void onChatsLoaded(List<DocumentSnapshot> chats) {
+                            handleChatsLoaded(chats);
+                        }
 
-            // Set up the third listener - for group chats where current user is a participant
-            groupChatsListener = db.collection("chats")
-                    .whereEqualTo("isGroupChat", true)
-                    .whereArrayContains("participants", currentUserId)
-                    .addSnapshotListener((snapshots, error) -> {
-                        handleChatSnapshot(snapshots, error);
+                        @Override
+                        public void onChatChanges(List<DocumentChange> changes) {
+                            handleChatChanges(changes);
+                        }
                     });
         } catch (Exception e) {
             Log.e(TAG, "Error setting up chat listeners", e);
@@ -247,41 +272,50 @@ public class ChatsFragment extends Fragment {
         }
     }
 
-    private void handleChatSnapshot(QuerySnapshot snapshots, FirebaseFirestoreException error) {
-        if (error != null) {
-            Log.e(TAG, "Listen failed", error);
-            return;
-        }
+    private void handleChatsLoaded(List<DocumentSnapshot> chats) {
+        Log.d(TAG, "Got " + chats.size() + " chat documents");
 
-        if (snapshots == null) {
-            Log.w(TAG, "No snapshot data");
-            updateEmptyView();
+        chatUpdates.cancel();
+        if (chats.isEmpty()) {
+            chatIndex.clear();
+            chatSearch.clear();
+            filterChats();
             return;
         }
 
-        Log.d(TAG, "Got " + snapshots.size() + " chat documents");
-
-        for (DocumentChange dc : snapshots.getDocumentChanges()) {
-            try {
-                QueryDocumentSnapshot document = dc.getDocument();
+        // Queued like any other update, the batch then replaces the index in one go
+        resetPending = true;
+        for (DocumentSnapshot document : chats) {
+            processChat(document);
+        }
+    }
 
-                // Check if it's a group chat
-                Boolean isGroupChat = document.getBoolean("isGroupChat");
-                if (Boolean.TRUE.equals(isGroupChat)) {
-                    processGroupChat(document);
-                } else {
-                    processOneToOneChat(document);
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error processing chat document change", e);
+    private void handleChatChanges(List<DocumentChange> changes) {
+        for (DocumentChange dc : changes) {
+            if (dc.getType() == DocumentChange.Type.REMOVED) {
+                // Deleted, or no longer among the newest chats
+                chatUpdates.remove(dc.getDocument().getId());
+            } else {
+                processChat(dc.getDocument());
             }
         }
+    }
 
-        // Apply current filter after processing changes
-        filterChats();
+    private void processChat(DocumentSnapshot document) {
+        try {
+            // Check if it's a group chat
+            Boolean isGroupChat = document.getBoolean("isGroupChat");
+            if (Boolean.TRUE.equals(isGroupChat)) {
+                processGroupChat(document);
+            } else {
+                processOneToOneChat(document);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error processing chat document change", e);
+        }
     }
 
-    private void processGroupChat(QueryDocumentSnapshot document) {
+    private void processGroupChat(DocumentSnapshot document) {
         try {
             String chatId = document.getId();
 
@@ -340,7 +374,7 @@ public class ChatsFragment extends Fragment {
         }
     }
 
-    private void processOneToOneChat(QueryDocumentSnapshot document) {
+    private void processOneToOneChat(DocumentSnapshot document) {
         try {
             String chatId = document.getId();
 
@@ -383,70 +417,53 @@ public class ChatsFragment extends Fragment {
             final Long finalTimestamp = timestamp;
             final boolean finalIsUnread = isUnread;
 
-            // Get the other user's data
-            db.collection("users").document(otherUserId)
-                    .get()
-                    .addOnSuccessListener(userDocument -> {
-                        if (userDocument.exists()) {
-                            try {
-                                String username = userDocument.getString("username");
-                                String profileImageUrl = userDocument.getString("profileImageUrl");
-
-                                // Check if user is online
-                                Boolean isOnline = userDocument.getBoolean("isOnline");
-                                boolean userOnlineStatus = isOnline != null && isOnline;
-
-                                if (username == null) username = "Unknown User";
-
-                                ChatListItem chatItem = new ChatListItem(
-                                        finalChatId,
-                                        finalOtherUserId,
-                                        username,
-                                        profileImageUrl,
-                                        finalLastMessage,
-                                        finalTimestamp,
-                                        finalIsUnread,
-                                        userOnlineStatus
-                                );
-
-                                // Debug log for online status
-                                Log.d(TAG, "User " + username + " online status: " + userOnlineStatus);
-
-                                addOrUpdateChat(chatItem);
-                            } catch (Exception e) {
-                                Log.e(TAG, "Error creating chat item", e);
-                            }
-                        } else {
-                            Log.w(TAG, "User document does not exist: " + finalOtherUserId);
-                            // Create a fallback chat item
-                            ChatListItem fallbackItem = new ChatListItem(
-                                    finalChatId,
-                                    finalOtherUserId,
-                                    "Unknown User",
-                                    null,
-                                    finalLastMessage,
-                                    finalTimestamp,
-                                    finalIsUnread,
-                                    false
-                            );
-                            addOrUpdateChat(fallbackItem);
-                        }
-                    })
-                    .addOnFailureListener(e -> {
-                        Log.e(TAG, "Error fetching user document: " + finalOtherUserId, e);
-                        // Create a fallback chat item
-                        ChatListItem fallbackItem = new ChatListItem(
+            // Get the other user's data, batched with the other chats of this snapshot
+            profileCache.resolve(otherUserId, (userId, user) -> {
+                if (user != null) {
+                    try {
+                        String username = user.getUsername();
+                        String profileImageUrl = user.getProfileImageUrl();
+
+                        // Presence comes from the Realtime Database, not the profile
+                        boolean userOnlineStatus = Boolean.TRUE.equals(
+                                PresenceManager.getInstance().isOnline(finalOtherUserId));
+
+                        if (username == null) username = "Unknown User";
+
+                        ChatListItem chatItem = new ChatListItem(
                                 finalChatId,
                                 finalOtherUserId,
-                                "Unknown User",
-                                null,
+                                username,
+                                profileImageUrl,
                                 finalLastMessage,
                                 finalTimestamp,
                                 finalIsUnread,
-                                false
+                                userOnlineStatus
                         );
-                        addOrUpdateChat(fallbackItem);
-                    });
+
+                        // Debug log for online status
+                        Log.d(TAG, "User " + username + " online status: " + userOnlineStatus);
+
+                        addOrUpdateChat(chatItem);
+                    } catch (Exception e) {
+                        Log.e(TAG, "Error creating chat item", e);
+                    }
+                } else {
+                    Log.w(TAG, "User profile not available: " + finalOtherUserId);
+                    // Create a fallback chat item
+                    ChatListItem fallbackItem = new ChatListItem(
+                            finalChatId,
+                            finalOtherUserId,
+                            "Unknown User",
+                            null,
+                            finalLastMessage,
+                            finalTimestamp,
+                            finalIsUnread,
+                            false
+                    );
+                    addOrUpdateChat(fallbackItem);
+                }
+            });
         } catch (Exception e) {
             Log.e(TAG, "Error processing chat document", e);
         }
@@ -459,105 +476,121 @@ public class ChatsFragment extends Fragment {
         }
 
         try {
-            // Use the map to avoid duplicates
-            chatMap.put(chatItem.getChatId(), chatItem);
-
-            // Apply filter based on current tab
-            filterChats();
+            // Applied with the other updates of this frame
+            chatUpdates.put(chatItem.getChatId(), chatItem);
         } catch (Exception e) {
             Log.e(TAG, "Error adding/updating chat", e);
         }
     }
 
-    private void filterChats() {
-        try {
-            if (tabLayoutChatFilter == null) {
-                // If there's no tab layout, just show all chats
-                updateChatListFromMap(new ArrayList<>(chatMap.values()));
-                return;
+    private void applyChatUpdates(Map<String, ChatListItem> updates) {
+        boolean bulk = resetPending || updates.size() > BULK_UPDATE_THRESHOLD;
+        if (resetPending) {
+            chatIndex.clear();
+            chatSearch.clear();
+            resetPending = false;
+        }
+
+        // Moves each chat to its new place in each tab. Search results are not a view of
+        // the index, they are looked up again after the batch instead.
+        boolean searching = !searchQuery.isEmpty();
+        ChatIndex.Listener listener = bulk || searching ? null : this::onChatPositionChanged;
+        for (Map.Entry<String, ChatListItem> update : updates.entrySet()) {
+            ChatListItem item = update.getValue();
+            if (item == null) {
+                chatIndex.remove(update.getKey(), listener);
+                chatSearch.remove(update.getKey());
+                continue;
             }
 
-            // Apply filter based on selected tab
-            switch (currentTabPosition) {
-                case 0: // All chats
-                    // Show all chats
-                    updateChatListFromMap(new ArrayList<>(chatMap.values()));
-                    break;
-                case 1: // Unread chats
-                    // Show only unread chats
-                    filterUnreadChats();
-                    break;
-                case 2: // Read chats
-                    // Show only read chats
-                    filterReadChats();
-                    break;
-                default:
-                    // Default to all chats
-                    updateChatListFromMap(new ArrayList<>(chatMap.values()));
-                    break;
+            if (!item.isGroupChat() && presence != null) {
+                // Start watching the contact, or carry over what is already known
+                presence.add(item.getUserId());
+                Boolean online = PresenceManager.getInstance().isOnline(item.getUserId());
+                if (online != null) {
+                    item.setUserOnline(online);
+                }
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error filtering chats", e);
+            chatIndex.put(item, listener);
+            chatSearch.put(item.getChatId(), item.getUsername());
         }
-    }
 
-    private void filterUnreadChats() {
-        List<ChatListItem> unreadChats = new ArrayList<>();
-        for (ChatListItem chat : chatMap.values()) {
-            // Debug log to help diagnose unread status
-            Log.d(TAG, "Filtering - Chat with " + chat.getUsername() + " isUnread: " + chat.isUnread());
+        if (bulk || searching) {
+            filterChats();
+        } else {
+            updateEmptyView();
+        }
+    }
 
-            if (chat.isUnread()) {
-                unreadChats.add(chat);
-            }
+    // Only rows of the visible tab are notified, the others are swapped in on tab change
+    private void onChatPositionChanged(int view, int from, int to) {
+        if (chatListAdapter == null || view != selectedView()) {
+            return;
         }
 
-        Log.d(TAG, "Found " + unreadChats.size() + " unread chats");
-        updateChatListFromMap(unreadChats);
+        if (from < 0) {
+            chatListAdapter.notifyItemInserted(to);
+        } else if (to < 0) {
+            chatListAdapter.notifyItemRemoved(from);
+        } else if (from == to) {
+            chatListAdapter.notifyItemChanged(to);
+        } else {
+            chatListAdapter.notifyItemMoved(from, to);
+            chatListAdapter.notifyItemChanged(to);
+        }
     }
 
-    private void filterReadChats() {
-        List<ChatListItem> readChats = new ArrayList<>();
-        for (ChatListItem chat : chatMap.values()) {
-            // Only add chats that are marked as read (NOT unread)
-            if (!chat.isUnread()) {
-                readChats.add(chat);
-            }
+    private int selectedView() {
+        if (tabLayoutChatFilter == null) {
+            // If there's no tab layout, just show all chats
+            return ChatIndex.VIEW_ALL;
+        }
+
+        switch (currentTabPosition) {
+            case 1: // Unread chats
+                return ChatIndex.VIEW_UNREAD;
+            case 2: // Read chats
+                return ChatIndex.VIEW_READ;
+            default: // All chats
+                return ChatIndex.VIEW_ALL;
         }
-        Log.d(TAG, "Found " + readChats.size() + " read chats");
-        updateChatListFromMap(readChats);
     }
 
-    private void updateChatListFromMap(List<ChatListItem> filteredList) {
+    private void filterChats() {
         try {
-            if (chatList == null || filteredList == null) {
-                Log.e(TAG, "Chat list or filtered list is null");
-                return;
-            }
-
-            // Sort the filtered list by timestamp (newest first)
-            Collections.sort(filteredList, (item1, item2) ->
-                    Long.compare(item2.getLastMessageTime(), item1.getLastMessageTime()));
-
-            // Update the adapter's data
-            chatList.clear();
-            chatList.addAll(filteredList);
-
-            // Log the filtered results
+            // Each tab is kept sorted by the index, switching is just a different view
+            chatList = searchQuery.isEmpty() ? chatIndex.view(selectedView()) : searchChats();
             Log.d(TAG, "Displaying " + chatList.size() + " chats after filtering");
 
-            // Update the adapter
             if (chatListAdapter != null) {
-                chatListAdapter.notifyDataSetChanged();
+                chatListAdapter.setChatList(chatList);
             }
 
             // Update empty view visibility
             updateEmptyView();
         } catch (Exception e) {
-            Log.e(TAG, "Error updating chat list from map", e);
+            Log.e(TAG, "Error filtering chats", e);
         }
     }
 
+    // Chats of the selected tab matching the search, best match first
+    private List<ChatListItem> searchChats() {
+        int view = selectedView();
+        List<ChatListItem> results = new ArrayList<>();
+        // Every match, the tab filter would otherwise eat into the limit
+        for (String chatId : chatSearch.search(searchQuery, chatSearch.size())) {
+            ChatListItem item = chatIndex.get(chatId);
+            if (item != null && (view == ChatIndex.VIEW_ALL
+                    || item.isUnread() == (view == ChatIndex.VIEW_UNREAD))) {
+                results.add(item);
+                if (results.size() == MAX_SEARCH_RESULTS) {
+                    break;
+                }
+            }
+        }
+        return results;
+    }
+
     private void updateEmptyView() {
         try {
             if (tvNoChats == null || rvChats == null) {
@@ -576,56 +609,31 @@ public class ChatsFragment extends Fragment {
         }
     }
 
-    private void setupUserStatusListeners() {
-        // Clear any existing listeners
-        for (ListenerRegistration listener : userStatusListeners.values()) {
-            listener.remove();
-        }
-        userStatusListeners.clear();
-
-        // Add listeners for each user in the chat list
-        for (ChatListItem chat : chatList) {
-            // Skip group chats
-            if (chat.isGroupChat()) {
+    // Online state of every one-to-one contact comes from one shared presence subscription
+    private void applyPresenceChanges(Map<String, Boolean> changes) {
+        int view = selectedView();
+        for (Map.Entry<String, Boolean> change : changes.entrySet()) {
+            String chatId = oneToOneChatId(change.getKey());
+            ChatListItem item = chatIndex.get(chatId);
+            if (item == null || item.isUserOnline() == change.getValue()) {
                 continue;
             }
 
-            String userId = chat.getUserId();
-            if (userId != null && !userStatusListeners.containsKey(userId)) {
-                ListenerRegistration listener = db.collection("users").document(userId)
-                        .addSnapshotListener((snapshot, e) -> {
-                            if (e != null || snapshot == null || !snapshot.exists()) {
-                                return;
-                            }
-
-                            Boolean isOnline = snapshot.getBoolean("isOnline");
-                            boolean userOnlineStatus = isOnline != null && isOnline;
-
-                            // Update the chat item with the new online status
-                            for (ChatListItem item : chatList) {
-                                if (item.getUserId().equals(userId)) {
-                                    item.setUserOnline(userOnlineStatus);
-                                    break;
-                                }
-                            }
-
-                            // Notify the adapter to refresh the view
-                            if (chatListAdapter != null) {
-                                chatListAdapter.notifyDataSetChanged();
-                            }
-                        });
-
-                userStatusListeners.put(userId, listener);
+            // Not part of the sort order, safe to change in place
+            item.setUserOnline(change.getValue());
+            int position = searchQuery.isEmpty() ? chatIndex.indexOf(view, chatId) : chatList.indexOf(item);
+            if (position >= 0 && chatListAdapter != null) {
+                chatListAdapter.notifyItemChanged(position, ChatListAdapter.PAYLOAD_PRESENCE);
             }
         }
     }
 
-    // Call this in onPause or onDestroy
-    private void removeUserStatusListeners() {
-        for (ListenerRegistration listener : userStatusListeners.values()) {
-            listener.remove();
+    // Same scheme as ChatActivity
+    private String oneToOneChatId(String otherUserId) {
+        if (currentUserId.compareTo(otherUserId) < 0) {
+            return currentUserId + "_" + otherUserId;
         }
-        userStatusListeners.clear();
+        return otherUserId + "_" + currentUserId;
     }
 
     @Override
@@ -633,8 +641,8 @@ public class ChatsFragment extends Fragment {
         super.onResume();
         // Only reload if we have a valid user
         if (currentUser != null) {
+            presence = PresenceManager.getInstance().observe(this::applyPresenceChanges);
             loadChats();
-            setupUserStatusListeners(); // Add this
         }
     }
 
@@ -642,37 +650,26 @@ public class ChatsFragment extends Fragment {
     public void onPause() {
         super.onPause();
         // Clean up listeners when fragment is paused
-        if (chatListener1 != null) {
-            chatListener1.remove();
-            chatListener1 = null;
-        }
-        if (chatListener2 != null) {
-            chatListener2.remove();
-            chatListener2 = null;
+        if (chatsSubscription != null) {
+            chatsSubscription.remove();
+            chatsSubscription = null;
         }
-        if (groupChatsListener != null) {
-            groupChatsListener.remove();
-            groupChatsListener = null;
+        if (presence != null) {
+            presence.cancel();
+            presence = null;
         }
-        removeUserStatusListeners(); // Add this
     }
 
     @Override
     public void onDestroyView() {
         super.onDestroyView();
         try {
+            chatUpdates.cancel();
+
             // Make sure listeners are removed
-            if (chatListener1 != null) {
-                chatListener1.remove();
-                chatListener1 = null;
-            }
-            if (chatListener2 != null) {
-                chatListener2.remove();
-                chatListener2 = null;
-            }
-            if (groupChatsListener != null) {
-                groupChatsListener.remove();
-                groupChatsListener = null;
+            if (chatsSubscription != null) {
+                chatsSubscription.remove();
+                chatsSubscription = null;
             }
         } catch (Exception e) {
             Log.e(TAG, "Error in onDestroyView", e);
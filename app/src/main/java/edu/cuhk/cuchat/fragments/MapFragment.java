@@ -24,6 +24,7 @@ import androidx.core.app.ActivityCompat;
 import androidx.constraintlayout.widget.ConstraintLayout;
 import androidx.constraintlayout.widget.ConstraintSet;
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -35,25 +36,34 @@ import com.google.android.gms.maps.OnMapReadyCallback;
 import com.google.android.gms.maps.SupportMapFragment;
 import com.google.android.gms.maps.model.BitmapDescriptor;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.Circle;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.GeoPoint;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
-import com.google.firebase.firestore.QuerySnapshot;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import edu.cuhk.cuchat.R;
 import edu.cuhk.cuchat.adapters.NearbyUsersAdapter;
+import edu.cuhk.cuchat.data.NearbyUsersStream;
 import edu.cuhk.cuchat.models.User;
+import edu.cuhk.cuchat.services.LocationTracker;
+import edu.cuhk.cuchat.utils.GeoHash;
+import edu.cuhk.cuchat.utils.MarkerClusterer;
+import edu.cuhk.cuchat.utils.SpatialIndex;
 import androidx.cardview.widget.CardView;
 import com.google.android.material.slider.Slider;
 import android.graphics.Color;
@@ -66,9 +76,12 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
     private static final float DEFAULT_ZOOM = 15f;
     private static final double MAX_DISTANCE_KM = 5.0; // 5 kilometers radius
     private static final int MAX_MAP_READY_RETRIES = 3;
+    private static final int MAX_NEARBY_RESULTS = 100; // Nearest first, for the list
+    private static final int MAX_MARKER_USERS = 10000; // On the map, clustered
 
     private GoogleMap mMap;
     private FusedLocationProviderClient fusedLocationClient;
+    private LocationTracker locationTracker;
     private FloatingActionButton fabMyLocation, fabNearbyUsers;
     private LinearLayout llNearbyUsersList;
     private RecyclerView rvNearbyUsers;
@@ -82,6 +95,21 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
     private boolean mapReady = false;
     private int mapReadyRetryCount = 0;
     private Handler handler = new Handler(Looper.getMainLooper());
+    private final ExecutorService rankExecutor = Executors.newSingleThreadExecutor();
+    private int searchGeneration = 0; // Results of older searches are dropped
+
+    // Users streamed within coveredRadiusKm of coveredLat/coveredLng, only touched on rankExecutor
+    private static final double NEARBY_INDEX_CELL_DEGREES = 0.005;
+    private final SpatialIndex nearbyIndex = new SpatialIndex(NEARBY_INDEX_CELL_DEGREES);
+    private final Map<String, DocumentSnapshot> nearbyDocuments = new HashMap<>();
+    private double coveredLat, coveredLng;
+    private double coveredRadiusKm = 0; // 0 while no stream is running
+    private NearbyUsersStream nearbyStream; // Runs while the nearby users panel is open
+    private boolean firstResultPending = false; // Next result answers a new search
+
+    private MarkerClusterer markerClusterer; // Markers of nearby users, created with the map
+    private Circle searchCircle;
+    private Marker selfMarker; // "You are here", kept while the clusterer's markers come and go
 
     private ImageButton btnDismissNearbyUsers;
 
@@ -132,6 +160,14 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
 
             // Initialize location services
             fusedLocationClient = LocationServices.getFusedLocationProviderClient(requireActivity());
+            locationTracker = new LocationTracker(requireContext(), db, location -> {
+                lastKnownLocation = location;
+
+                // The nearby users follow the user, only the cells walked into are read
+                if (llNearbyUsersList != null && llNearbyUsersList.getVisibility() == View.VISIBLE) {
+                    updateNearbyArea();
+                }
+            });
 
             // Initialize RecyclerView for nearby users
             initializeNearbyUsersList();
@@ -225,6 +261,7 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
                     if (llNearbyUsersList.getVisibility() == View.VISIBLE) {
                         llNearbyUsersList.setVisibility(View.GONE);
                         isNearbyUsersExpanded = false;
+                        stopNearbyStream();
 
                         // Reset the constraint to original
                         resetMapToFullSize();
@@ -251,6 +288,15 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
                 sliderRange.addOnChangeListener((slider, value, fromUser) -> {
                     if (fromUser) {
                         updateRangeLabel(value);
+
+                        // Follow the slider live while the fetched users still cover the range
+                        if (llNearbyUsersList != null && llNearbyUsersList.getVisibility() == View.VISIBLE) {
+                            double previous = searchDistanceKm;
+                            searchDistanceKm = value;
+                            if (!requeryNearbyUsers()) {
+                                searchDistanceKm = previous;
+                            }
+                        }
                     }
                 });
             }
@@ -267,9 +313,12 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
                     // Hide the slider card
                     cardRangeSlider.setVisibility(View.GONE);
 
-                    // If the nearby users list is already visible, refresh it with the new range
+                    // If the nearby users list is already visible, refresh it with the new range,
+                    // listening to more cells only if the range grew past what is streamed
                     if (llNearbyUsersList.getVisibility() == View.VISIBLE) {
-                        findNearbyUsers();
+                        if (!requeryNearbyUsers() && !updateNearbyArea()) {
+                            findNearbyUsers();
+                        }
                     } else {
                         // Show a toast to confirm the range change
                         Toast.makeText(requireContext(),
@@ -282,6 +331,8 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
             // Existing click listeners...
             if (btnDismissNearbyUsers != null) {
                 btnDismissNearbyUsers.setOnClickListener(v -> {
+                    stopNearbyStream();
+
                     // Hide the nearby users panel
                     if (llNearbyUsersList != null) {
                         llNearbyUsersList.setVisibility(View.GONE);
@@ -291,17 +342,17 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
                         resetMapToFullSize();
                     }
 
-                    // Clear map markers if needed
+                    // Remove the nearby users and the search circle, the user's own marker stays
                     if (mMap != null) {
-                        mMap.clear();
+                        markerClusterer.clear();
+                        if (searchCircle != null) {
+                            searchCircle.remove();
+                            searchCircle = null;
+                        }
 
-                        // Add back current user marker if location is available
                         if (lastKnownLocation != null) {
                             LatLng currentUserLatLng = new LatLng(lastKnownLocation.getLatitude(), lastKnownLocation.getLongitude());
-                            mMap.addMarker(new MarkerOptions()
-                                    .position(currentUserLatLng)
-                                    .title("You are here")
-                                    .icon(getColoredMarkerIcon(getResources().getColor(R.color.purple_500))));
+                            showSelfMarker(currentUserLatLng);
 
                             // Center the map on the user's location
                             mMap.animateCamera(CameraUpdateFactory.newLatLngZoom(currentUserLatLng, DEFAULT_ZOOM));
@@ -371,6 +422,16 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
     @Override
     public void onMapReady(@NonNull GoogleMap googleMap) {
         try {
+            if (mMap != googleMap || markerClusterer == null) {
+                // Shapes of a previous map instance are gone with it
+                selfMarker = null;
+                searchCircle = null;
+
+                // Nearby users are clustered, and re-rendered for the viewport after every pan or zoom
+                markerClusterer = new MarkerClusterer(googleMap);
+                googleMap.setOnCameraIdleListener(markerClusterer::render);
+                googleMap.setOnMarkerClickListener(markerClusterer::onMarkerClick);
+            }
             mMap = googleMap;
             mapReady = true;
 
@@ -391,6 +452,7 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
 
             // Get current location and update map
             getDeviceLocation();
+            startLocationUpdates();
         } catch (Exception e) {
             Log.e(TAG, "Error in onMapReady", e);
             Toast.makeText(requireContext(), "Error setting up map", Toast.LENGTH_SHORT).show();
@@ -413,19 +475,13 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
                             if (location != null) {
                                 lastKnownLocation = location;
 
-                                // Update location in Firestore
-                                updateUserLocation(location);
-
                                 // Move camera to current location if map is ready
                                 if (mMap != null && mapReady) {
                                     LatLng currentLatLng = new LatLng(location.getLatitude(), location.getLongitude());
                                     mMap.moveCamera(CameraUpdateFactory.newLatLngZoom(currentLatLng, DEFAULT_ZOOM));
 
-                                    // Add marker for current user with purple color
-                                    mMap.addMarker(new MarkerOptions()
-                                            .position(currentLatLng)
-                                            .title("You are here")
-                                            .icon(getColoredMarkerIcon(getResources().getColor(R.color.purple_500))));
+                                    // Marker for current user with purple color
+                                    showSelfMarker(currentLatLng);
                                 }
                             } else {
                                 Log.w(TAG, "Location is null");
@@ -455,24 +511,18 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
         return BitmapDescriptorFactory.defaultMarker(hsv[0]);
     }
 
-    private void updateUserLocation(Location location) {
-        if (mAuth == null || mAuth.getCurrentUser() == null || db == null) {
-            Log.w(TAG, "Cannot update user location: Auth or Firestore is null");
+    // Streams the location while the map is shown, the tracker decides when to write it
+    private void startLocationUpdates() {
+        if (locationTracker == null || mAuth == null || mAuth.getCurrentUser() == null) {
             return;
         }
-
-        try {
-            Map<String, Object> updates = new HashMap<>();
-            updates.put("location", new GeoPoint(location.getLatitude(), location.getLongitude()));
-            updates.put("lastLocationUpdate", System.currentTimeMillis());
-
-            db.collection("users").document(mAuth.getCurrentUser().getUid())
-                    .update(updates)
-                    .addOnSuccessListener(aVoid -> Log.d(TAG, "User location updated"))
-                    .addOnFailureListener(e -> Log.w(TAG, "Error updating user location", e));
-        } catch (Exception e) {
-            Log.e(TAG, "Error updating user location", e);
+        if (ActivityCompat.checkSelfPermission(requireContext(),
+                Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED &&
+                ActivityCompat.checkSelfPermission(requireContext(),
+                        Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            return;
         }
+        locationTracker.start(mAuth.getCurrentUser().getUid());
     }
 
     // Improved nearby user search that makes the map larger
@@ -508,27 +558,32 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
 
             // Clear previous data
             nearbyUsersList.clear();
+            if (nearbyUsersAdapter != null) {
+                nearbyUsersAdapter.notifyDataSetChanged();
+            }
 
-            // Clear map markers if map is ready
+            // Clear the previous result's markers if map is ready
             if (mMap != null && mapReady) {
-                mMap.clear();
+                markerClusterer.clear();
 
-                // Add current user marker with purple color
+                // Current user marker with purple color
                 LatLng currentUserLatLng = new LatLng(lastKnownLocation.getLatitude(), lastKnownLocation.getLongitude());
-                mMap.addMarker(new MarkerOptions()
-                        .position(currentUserLatLng)
-                        .title("You are here")
-                        .icon(getColoredMarkerIcon(getResources().getColor(R.color.purple_500))));
+                showSelfMarker(currentUserLatLng);
 
                 // Center the map on the user's location
                 mMap.animateCamera(CameraUpdateFactory.newLatLngZoom(currentUserLatLng, DEFAULT_ZOOM));
 
-                // Add a circle to show the search radius
-                mMap.addCircle(new CircleOptions()
-                        .center(currentUserLatLng)
-                        .radius(searchDistanceKm * 1000) // Convert km to meters
-                        .strokeColor(Color.argb(100, 0, 0, 255))
-                        .fillColor(Color.argb(30, 0, 0, 255)));
+                // A circle to show the search radius, moved rather than redrawn
+                if (searchCircle != null) {
+                    searchCircle.setCenter(currentUserLatLng);
+                    searchCircle.setRadius(searchDistanceKm * 1000); // Convert km to meters
+                } else {
+                    searchCircle = mMap.addCircle(new CircleOptions()
+                            .center(currentUserLatLng)
+                            .radius(searchDistanceKm * 1000) // Convert km to meters
+                            .strokeColor(Color.argb(100, 0, 0, 255))
+                            .fillColor(Color.argb(30, 0, 0, 255)));
+                }
             } else {
                 // Map isn't ready, but we can still search for users and show the list
                 Log.d(TAG, "Map is not ready yet, but still searching for nearby users");
@@ -550,31 +605,9 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
                 return;
             }
 
-            db.collection("users")
-                    .get()
-                    .addOnSuccessListener(queryDocumentSnapshots -> {
-                        processUsersQueryResult(queryDocumentSnapshots);
-
-                        // Update the title to show found users
-                        if (tvNearbyUsersTitle instanceof TextView) {
-                            if (nearbyUsersList.isEmpty()) {
-                                ((TextView) tvNearbyUsersTitle).setText("No users found within " + formatDistance(searchDistanceKm));
-                            } else {
-                                ((TextView) tvNearbyUsersTitle).setText("Found " + nearbyUsersList.size() +
-                                        " users within " + formatDistance(searchDistanceKm));
-                            }
-                        }
-                    })
-                    .addOnFailureListener(e -> {
-                        Log.w(TAG, "Error finding nearby users", e);
-                        Toast.makeText(requireContext(), "Error finding nearby users", Toast.LENGTH_SHORT).show();
-                        createMockUsersIfNeeded(true);
-
-                        // Update title to show error
-                        if (tvNearbyUsersTitle instanceof TextView) {
-                            ((TextView) tvNearbyUsersTitle).setText("Error finding nearby users");
-                        }
-                    });
+            // A fresh search, the first result replaces the list and may fall back to mock users
+            firstResultPending = true;
+            startNearbyStream();
         } catch (Exception e) {
             Log.e(TAG, "Error finding nearby users", e);
             Toast.makeText(requireContext(), "Error searching for nearby users", Toast.LENGTH_SHORT).show();
@@ -582,86 +615,206 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
         }
     }
 
-    private void processUsersQueryResult(QuerySnapshot queryDocumentSnapshots) {
-        try {
-            if (mAuth == null || mAuth.getCurrentUser() == null) {
-                Log.w(TAG, "Auth is null or no current user");
-                return;
-            }
+    // Adds the "You are here" marker once, later calls only move it
+    private void showSelfMarker(LatLng position) {
+        if (selfMarker != null) {
+            selfMarker.setPosition(position);
+            return;
+        }
+        selfMarker = mMap.addMarker(new MarkerOptions()
+                .position(position)
+                .title("You are here")
+                .icon(getColoredMarkerIcon(getResources().getColor(R.color.purple_500))));
+    }
 
-            String currentUserId = mAuth.getCurrentUser().getUid();
-            boolean foundNearbyUsers = false;
+    // Listens to the cells around the user from scratch, the index is refilled from the stream
+    private void startNearbyStream() {
+        if (mAuth == null || mAuth.getCurrentUser() == null || lastKnownLocation == null) {
+            Log.w(TAG, "Auth is null, no current user or no location");
+            return;
+        }
 
-            for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
-                try {
-                    // Skip the current user
-                    if (document.getId().equals(currentUserId)) {
-                        continue;
-                    }
+        stopNearbyStream();
+        nearbyStream = new NearbyUsersStream(db, mAuth.getCurrentUser().getUid(), this::applyNearbyChanges);
+        updateNearbyArea();
+    }
 
-                    User user = document.toObject(User.class);
-                    if (user == null || user.getUserId() == null) {
-                        Log.w(TAG, "Null user or user ID for document: " + document.getId());
-                        continue;
-                    }
+    private void stopNearbyStream() {
+        if (nearbyStream != null) {
+            nearbyStream.stop();
+            nearbyStream = null;
+        }
+        coveredRadiusKm = 0;
+        searchGeneration++; // Rankings already queued must not refill a closed panel
+        rankExecutor.execute(() -> {
+            nearbyIndex.clear();
+            nearbyDocuments.clear();
+        });
+    }
 
-                    // Get user's location
-                    GeoPoint geoPoint = document.getGeoPoint("location");
-                    if (geoPoint == null) {
-                        // Skip users without location
-                        continue;
-                    }
+    // Moves the stream to the user's location and the current range, returns false if none runs
+    private boolean updateNearbyArea() {
+        if (nearbyStream == null || lastKnownLocation == null) {
+            return false;
+        }
 
-                    // Calculate distance
-                    Location userLocation = new Location("");
-                    userLocation.setLatitude(geoPoint.getLatitude());
-                    userLocation.setLongitude(geoPoint.getLongitude());
+        coveredLat = lastKnownLocation.getLatitude();
+        coveredLng = lastKnownLocation.getLongitude();
+        coveredRadiusKm = searchDistanceKm;
+        if (searchCircle != null) {
+            searchCircle.setCenter(new LatLng(coveredLat, coveredLng));
+            searchCircle.setRadius(searchDistanceKm * 1000);
+        }
 
-                    float distanceInMeters = lastKnownLocation.distanceTo(userLocation);
-                    double distanceInKm = distanceInMeters / 1000.0;
+        // Answered through applyNearbyChanges once the new cells have reported
+        nearbyStream.setArea(coveredLat, coveredLng, coveredRadiusKm);
+        return true;
+    }
+
+    // Applies the users that entered, moved or left to the index, then ranks again
+    private void applyNearbyChanges(Map<String, DocumentSnapshot> entered, Set<String> left) {
+        rankExecutor.execute(() -> {
+            for (String userId : left) {
+                nearbyIndex.remove(userId);
+                nearbyDocuments.remove(userId);
+            }
+            for (Map.Entry<String, DocumentSnapshot> entry : entered.entrySet()) {
+                GeoPoint geoPoint = entry.getValue().getGeoPoint("location");
+                if (geoPoint == null) {
+                    continue;
+                }
+                nearbyIndex.put(entry.getKey(), geoPoint.getLatitude(), geoPoint.getLongitude());
+                nearbyDocuments.put(entry.getKey(), entry.getValue());
+            }
+        });
+        queryNearbyUsers();
+    }
 
-                    // Only show users within the specified distance (use the slider value)
-                    if (distanceInKm <= searchDistanceKm) {
-                        // Add user to list
-                        user.setDistanceInKm(distanceInKm);
-                        nearbyUsersList.add(user);
-                        foundNearbyUsers = true;
-
-                        // Add marker on map if map is ready
-                        if (mMap != null && mapReady) {
-                            LatLng userLatLng = new LatLng(geoPoint.getLatitude(), geoPoint.getLongitude());
-                            mMap.addMarker(new MarkerOptions()
-                                    .position(userLatLng)
-                                    .title(user.getUsername())
-                                    .snippet(String.format("%.1f km away", distanceInKm)));
+    // Answers the search from the indexed users if they cover the current circle
+    private boolean requeryNearbyUsers() {
+        if (lastKnownLocation == null || coveredRadiusKm <= 0) {
+            return false;
+        }
+        double moved = GeoHash.distanceKm(coveredLat, coveredLng,
+                lastKnownLocation.getLatitude(), lastKnownLocation.getLongitude());
+        if (moved + searchDistanceKm > coveredRadiusKm) {
+            return false;
+        }
+
+        if (searchCircle != null) {
+            searchCircle.setRadius(searchDistanceKm * 1000);
+        }
+        queryNearbyUsers();
+        return true;
+    }
+
+    // Distances and ranking run on rankExecutor, only the top results come back to the UI
+    private void queryNearbyUsers() {
+        final int generation = ++searchGeneration;
+        final double originLat = lastKnownLocation.getLatitude();
+        final double originLng = lastKnownLocation.getLongitude();
+        final double radiusKm = searchDistanceKm;
+
+        rankExecutor.execute(() -> {
+            try {
+                List<SpatialIndex.Hit> hits = nearbyIndex.withinRadius(originLat, originLng,
+                        radiusKm, MAX_MARKER_USERS);
+
+                // Everyone goes on the map, only the nearest are deserialized for the list
+                List<User> users = new ArrayList<>(Math.min(hits.size(), MAX_NEARBY_RESULTS));
+                List<MarkerClusterer.Item> items = new ArrayList<>(hits.size());
+                for (SpatialIndex.Hit hit : hits) {
+                    DocumentSnapshot document = nearbyDocuments.get(hit.id);
+                    if (document == null) {
+                        continue;
+                    }
+                    String snippet = String.format("%.1f km away", hit.distanceKm);
+                    items.add(new MarkerClusterer.Item(hit.id, new LatLng(hit.lat, hit.lng),
+                            document.getString("username"), snippet));
+
+                    if (users.size() < MAX_NEARBY_RESULTS) {
+                        User user = document.toObject(User.class);
+                        if (user == null || user.getUserId() == null) {
+                            Log.w(TAG, "Null user or user ID for document: " + hit.id);
+                            continue;
                         }
+                        user.setDistanceInKm(hit.distanceKm);
+                        users.add(user);
                     }
-                } catch (Exception e) {
-                    Log.e(TAG, "Error processing user document: " + document.getId(), e);
                 }
-            }
 
-            // If no nearby users found, add mock users
-            if (!foundNearbyUsers) {
-                createMockUsersIfNeeded(true);
+                handler.post(() -> showNearbyUsers(generation, users, items));
+            } catch (Exception e) {
+                Log.e(TAG, "Error ranking nearby users", e);
             }
+        });
+    }
+
+    private void showNearbyUsers(int generation, List<User> users, List<MarkerClusterer.Item> items) {
+        if (generation != searchGeneration || !isAdded()) {
+            // A newer search was started, or the fragment is gone
+            return;
+        }
+
+        try {
+            boolean firstResult = firstResultPending;
+            firstResultPending = false;
 
-            // Update adapter
+            // Live updates mostly move a few rows, only those are rebound
+            DiffUtil.DiffResult diff = NearbyUsersAdapter.diff(new ArrayList<>(nearbyUsersList), users);
+            nearbyUsersList.clear();
+            nearbyUsersList.addAll(users);
             if (nearbyUsersAdapter != null) {
-                nearbyUsersAdapter.notifyDataSetChanged();
+                diff.dispatchUpdatesTo(nearbyUsersAdapter);
+            }
+
+            // Replaces the markers of the previous result, clustered and only in view
+            if (markerClusterer != null && mapReady) {
+                markerClusterer.setItems(items);
+            }
+
+            if (!firstResult) {
+                updateNearbyUsersTitle(users, items);
+                return;
+            }
+
+            // If no nearby users found, add mock users
+            if (users.isEmpty()) {
+                createMockUsersIfNeeded(true);
             }
 
             if (nearbyUsersList.isEmpty()) {
                 Toast.makeText(requireContext(), "No users found within " + formatDistance(searchDistanceKm), Toast.LENGTH_SHORT).show();
             }
 
+            updateNearbyUsersTitle(users, items);
+
             // Center map on user's location again after adding markers
             if (mMap != null && lastKnownLocation != null) {
                 LatLng currentUserLatLng = new LatLng(lastKnownLocation.getLatitude(), lastKnownLocation.getLongitude());
                 mMap.animateCamera(CameraUpdateFactory.newLatLngZoom(currentUserLatLng, DEFAULT_ZOOM));
             }
         } catch (Exception e) {
-            Log.e(TAG, "Error processing users query result", e);
+            Log.e(TAG, "Error showing nearby users", e);
+        }
+    }
+
+    private void updateNearbyUsersTitle(List<User> users, List<MarkerClusterer.Item> items) {
+        try {
+            // Update the title to show found users
+            View tvNearbyUsersTitle = getView() != null ? getView().findViewById(R.id.tvNearbyUsersTitle) : null;
+            if (tvNearbyUsersTitle instanceof TextView) {
+                if (nearbyUsersList.isEmpty()) {
+                    ((TextView) tvNearbyUsersTitle).setText("No users found within " + formatDistance(searchDistanceKm));
+                } else {
+                    // The list stops at the nearest MAX_NEARBY_RESULTS, the map has everyone
+                    int found = users.isEmpty() ? nearbyUsersList.size() : items.size();
+                    ((TextView) tvNearbyUsersTitle).setText("Found " + found +
+                            " users within " + formatDistance(searchDistanceKm));
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error updating nearby users title", e);
         }
     }
 
@@ -689,6 +842,7 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
                 Log.d(TAG, "Creating mock users for testing");
 
                 // Create mock users with locations near current user
+                List<MarkerClusterer.Item> mockItems = new ArrayList<>();
                 for (int i = 1; i <= 5; i++) {
                     User mockUser = new User();
                     mockUser.setUserId("mock-user-" + i);
@@ -727,14 +881,13 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
                     mockUser.setDistanceInKm(distanceInKm);
                     nearbyUsersList.add(mockUser);
 
-                    // Add marker on map if map is ready
-                    if (mMap != null && mapReady) {
-                        LatLng mockLatLng = new LatLng(mockLat, mockLng);
-                        mMap.addMarker(new MarkerOptions()
-                                .position(mockLatLng)
-                                .title(mockUser.getUsername())
-                                .snippet(String.format("%.1f km away", distanceInKm)));
-                    }
+                    mockItems.add(new MarkerClusterer.Item(mockUser.getUserId(), new LatLng(mockLat, mockLng),
+                            mockUser.getUsername(), String.format("%.1f km away", distanceInKm)));
+                }
+
+                // Add markers on map if map is ready
+                if (markerClusterer != null && mapReady) {
+                    markerClusterer.addItems(mockItems);
                 }
 
                 // Update adapter
@@ -787,6 +940,14 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
 
         // Reset map ready retry count
         mapReadyRetryCount = 0;
+
+        startLocationUpdates();
+
+        // Catch up on the nearby users missed while paused
+        if (nearbyStream != null && llNearbyUsersList != null
+                && llNearbyUsersList.getVisibility() == View.VISIBLE) {
+            startNearbyStream();
+        }
     }
 
     @Override
@@ -794,13 +955,29 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
         super.onPause();
         // Clean up resources
         mapReady = false;
+        if (locationTracker != null) {
+            locationTracker.stop();
+        }
+        if (nearbyStream != null) {
+            nearbyStream.stop();
+        }
     }
 
     @Override
     public void onDestroyView() {
         super.onDestroyView();
         // Clean up map resources
+        stopNearbyStream();
         mMap = null;
+        markerClusterer = null;
+        selfMarker = null;
+        searchCircle = null;
         mapReady = false;
     }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        rankExecutor.shutdownNow();
+    }
 }
\ No newline at end of file
@@ -18,7 +18,6 @@ import com.bumptech.glide.Glide;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.firestore.FirebaseFirestore;
 
 import java.util.HashMap;
@@ -27,8 +26,9 @@ import java.util.Map;
 import de.hdodenhof.circleimageview.CircleImageView;
 import edu.cuhk.cuchat.LoginActivity;
 import edu.cuhk.cuchat.R;
+import edu.cuhk.cuchat.data.UserProfileCache;
 import edu.cuhk.cuchat.models.User;
-import edu.cuhk.cuchat.services.UserStatusService;
+import edu.cuhk.cuchat.services.PresenceManager;
 
 public class ProfileFragment extends Fragment {
 
@@ -160,6 +160,7 @@ public class ProfileFragment extends Fragment {
             db.collection("users").document(user.getUid())
                     .update(userUpdates)
                     .addOnSuccessListener(aVoid -> {
+                        UserProfileCache.getInstance().invalidate(user.getUid());
                         Toast.makeText(getActivity(), "Profile updated successfully", Toast.LENGTH_SHORT).show();
                     })
                     .addOnFailureListener(e -> {
@@ -173,24 +174,8 @@ public class ProfileFragment extends Fragment {
     }
 
     private void logoutUser() {
-        // Mark user as offline in Firestore
-        FirebaseUser currentUser = mAuth.getCurrentUser();
-        if (currentUser != null) {
-            FirebaseFirestore.getInstance().collection("users")
-                    .document(currentUser.getUid())
-                    .update("isOnline", false,
-                            "lastSeen", System.currentTimeMillis());
-
-            // Also mark in Realtime Database
-            FirebaseDatabase.getInstance().getReference()
-                    .child("status").child(currentUser.getUid())
-                    .setValue("offline");
-        }
-
-        // Stop the status service
-        if (getActivity() != null) {
-            getActivity().stopService(new Intent(getActivity(), UserStatusService.class));
-        }
+        // Mark user as offline while still signed in
+        PresenceManager.getInstance().stop();
 
         // Sign out from Firebase
         mAuth.signOut();
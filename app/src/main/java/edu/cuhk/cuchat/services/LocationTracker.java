@@ -0,0 +1,184 @@
+package edu.cuhk.cuchat.services;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.location.Priority;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.GeoPoint;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.cuhk.cuchat.utils.GeoHash;
+
+/**
+ * Streams the device location while started and publishes it to users/{uid} sparingly.
+ *
+ * Updates come at high accuracy while the user moves. After {@link #STATIONARY_AFTER_MS}
+ * without moving {@link #MIN_DISPLACEMENT_M}, the request drops to balanced power at a
+ * longer interval, and goes back up once the user moves again. The location is only
+ * written when it is {@link #MIN_DISPLACEMENT_M} away from the last written one, or when
+ * the last write is {@link #MAX_STALENESS_MS} old, with location, geohash and timestamp
+ * in one update.
+ *
+ * The caller must hold a location permission. Must be used from the main thread.
+ */
+public class LocationTracker {
+
+    private static final String TAG = "LocationTracker";
+
+    public static final float MIN_DISPLACEMENT_M = 50;
+    public static final long MAX_STALENESS_MS = 5 * 60 * 1000;
+    private static final long STATIONARY_AFTER_MS = 2 * 60 * 1000;
+    private static final long MOVING_INTERVAL_MS = 10 * 1000;
+    private static final long STATIONARY_INTERVAL_MS = 60 * 1000;
+
+    public interface Listener {
+        // Every fix, whether or not it was written
+        void onLocationChanged(Location location);
+    }
+
+    private final FusedLocationProviderClient fusedLocationClient;
+    private final FirebaseFirestore db;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable publishIfStale = this::publishIfStale;
+
+    private String userId;
+    private boolean moving = true;
+    private Location lastFix;
+    private Location lastMovement; // Fix where the user was last seen moving
+    private long lastMovementAt;
+    private Location lastPublished;
+    private long lastPublishedAt;
+
+    private final LocationCallback callback = new LocationCallback() {
+        @Override
+        public void onLocationResult(@NonNull LocationResult result) {
+            Location location = result.getLastLocation();
+            if (location != null) {
+                handleFix(location);
+            }
+        }
+    };
+
+    public LocationTracker(Context context, FirebaseFirestore db, Listener listener) {
+        this.fusedLocationClient = LocationServices.getFusedLocationProviderClient(context);
+        this.db = db;
+        this.listener = listener;
+    }
+
+    public void start(String userId) {
+        if (userId.equals(this.userId)) {
+            return;
+        }
+        stop();
+        this.userId = userId;
+        moving = true;
+        lastMovementAt = SystemClock.elapsedRealtime();
+        requestUpdates();
+        handler.postDelayed(publishIfStale, MAX_STALENESS_MS);
+    }
+
+    public void stop() {
+        if (userId == null) {
+            return;
+        }
+        fusedLocationClient.removeLocationUpdates(callback);
+        handler.removeCallbacks(publishIfStale);
+        userId = null;
+    }
+
+    private void handleFix(Location location) {
+        lastFix = location;
+        listener.onLocationChanged(location);
+
+        long now = SystemClock.elapsedRealtime();
+        if (lastMovement == null || location.distanceTo(lastMovement) >= MIN_DISPLACEMENT_M) {
+            lastMovement = location;
+            lastMovementAt = now;
+            setMoving(true);
+        } else if (now - lastMovementAt >= STATIONARY_AFTER_MS) {
+            setMoving(false);
+        }
+
+        if (lastPublished == null || location.distanceTo(lastPublished) >= MIN_DISPLACEMENT_M) {
+            publish(location);
+        }
+    }
+
+    private void setMoving(boolean moving) {
+        if (this.moving != moving) {
+            this.moving = moving;
+            Log.d(TAG, moving ? "Moving, high accuracy updates" : "Stationary, balanced power updates");
+            requestUpdates();
+        }
+    }
+
+    @SuppressLint("MissingPermission")
+    private void requestUpdates() {
+        LocationRequest request = moving
+                ? new LocationRequest.Builder(Priority.PRIORITY_HIGH_ACCURACY, MOVING_INTERVAL_MS)
+                        .setMinUpdateIntervalMillis(MOVING_INTERVAL_MS / 2)
+                        .build()
+                : new LocationRequest.Builder(Priority.PRIORITY_BALANCED_POWER_ACCURACY, STATIONARY_INTERVAL_MS)
+                        .setMinUpdateIntervalMillis(STATIONARY_INTERVAL_MS / 2)
+                        .build();
+
+        // Replaces the previous request for this callback
+        fusedLocationClient.requestLocationUpdates(request, callback, Looper.getMainLooper())
+                .addOnFailureListener(e -> Log.e(TAG, "Error requesting location updates", e));
+    }
+
+    // Keeps lastLocationUpdate fresh for a user who has not moved
+    private void publishIfStale() {
+        if (lastFix != null && SystemClock.elapsedRealtime() - lastPublishedAt >= MAX_STALENESS_MS) {
+            publish(lastFix);
+        }
+        handler.removeCallbacks(publishIfStale);
+        handler.postDelayed(publishIfStale,
+                staleCheckDelay(lastFix != null ? lastPublishedAt : 0, SystemClock.elapsedRealtime()));
+    }
+
+    // Until the last write goes stale. With nothing written yet there is nothing to keep
+    // fresh, the first fix is written as it arrives, so check again a full period later.
+    static long staleCheckDelay(long lastPublishedAt, long now) {
+        if (lastPublishedAt == 0) {
+            return MAX_STALENESS_MS;
+        }
+        return Math.max(1000, MAX_STALENESS_MS - (now - lastPublishedAt));
+    }
+
+    private void publish(Location location) {
+        if (userId == null) {
+            return;
+        }
+        lastPublished = location;
+        lastPublishedAt = SystemClock.elapsedRealtime();
+
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("location", new GeoPoint(location.getLatitude(), location.getLongitude()));
+        // Kept next to location for the nearby range queries
+        updates.put("geohash", GeoHash.encode(location.getLatitude(), location.getLongitude(),
+                GeoHash.STORED_PRECISION));
+        updates.put("lastLocationUpdate", System.currentTimeMillis());
+
+        db.collection("users").document(userId)
+                .update(updates)
+                .addOnSuccessListener(aVoid -> Log.d(TAG, "User location updated"))
+                .addOnFailureListener(e -> Log.w(TAG, "Error updating user location", e));
+    }
+}
@@ -28,6 +28,7 @@ import java.util.Map;
 import edu.cuhk.cuchat.ChatActivity;
 import edu.cuhk.cuchat.MainActivity;
 import edu.cuhk.cuchat.R;
+import edu.cuhk.cuchat.data.UserProfileCache;
 
 public class NotificationService extends FirebaseMessagingService {
 
@@ -120,25 +121,15 @@ public class NotificationService extends FirebaseMessagingService {
             intent.putExtra("userId", chatUserId);
 
             // Get the username and profile image for the chat
-            FirebaseFirestore.getInstance().collection("users").document(chatUserId)
-                    .get()
-                    .addOnSuccessListener(documentSnapshot -> {
-                        if (documentSnapshot.exists()) {
-                            String username = documentSnapshot.getString("username");
-                            String profileImageUrl = documentSnapshot.getString("profileImageUrl");
-
-                            intent.putExtra("username", username);
-                            intent.putExtra("profileImageUrl", profileImageUrl);
-
-                            // Now continue with showing the notification
-                            showNotificationWithIntent(title, messageBody, intent, chatUserId.hashCode());
-                        } else {
-                            showNotificationWithIntent(title, messageBody, intent, chatUserId.hashCode());
-                        }
-                    })
-                    .addOnFailureListener(e -> {
-                        showNotificationWithIntent(title, messageBody, intent, chatUserId.hashCode());
-                    });
+            UserProfileCache.getInstance().resolve(chatUserId, (userId, user) -> {
+                if (user != null) {
+                    intent.putExtra("username", user.getUsername());
+                    intent.putExtra("profileImageUrl", user.getProfileImageUrl());
+                }
+
+                // Now continue with showing the notification
+                showNotificationWithIntent(title, messageBody, intent, chatUserId.hashCode());
+            });
 
             return; // Exit early as we'll show notification from the callback
         } else {
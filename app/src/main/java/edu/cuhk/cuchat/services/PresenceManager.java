@@ -0,0 +1,293 @@
+package edu.cuhk.cuchat.services;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ServerValue;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.cuhk.cuchat.utils.FrameBatcher;
+
+/**
+ * Presence of the signed-in user and of other users, kept only in the Realtime Database
+ * status/{uid} nodes as {state: "online" | "offline", lastChanged}. Firestore user
+ * documents are not touched, so a state change does not re-broadcast the whole profile
+ * to everyone listening to it.
+ *
+ * The signed-in user's own state is derived from whether any activity is started and
+ * whether the database connection is up. A change only gets written once it has held
+ * for a grace period, so switching screens, rotating or briefly leaving the app does not
+ * produce an offline/online pair. While connected, an onDisconnect handler marks the
+ * user offline if the process dies or the connection drops.
+ *
+ * Each watched user has one listener however many subscriptions include them, and the
+ * listener is dropped when the last subscription lets go. Changes are delivered to each
+ * subscription at most once per frame, as a map of only the users that changed.
+ *
+ * Must be used from the main thread.
+ */
+public class PresenceManager {
+
+    private static final String TAG = "PresenceManager";
+
+    // How long a new own state has to hold before it is written
+    public static final long DEFAULT_ONLINE_GRACE_MS = 1000;
+    public static final long DEFAULT_OFFLINE_GRACE_MS = 30 * 1000;
+
+    public interface Observer {
+        // userId -> online, for the watched users whose state changed
+        void onPresenceChanged(Map<String, Boolean> changes);
+    }
+
+    private static PresenceManager instance;
+
+    private final DatabaseReference statusRef;
+    private final DatabaseReference connectedRef;
+    private final Map<String, Watch> watches = new HashMap<>();
+
+    // Own presence
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable settle = this::settle;
+    private long onlineGraceMs = DEFAULT_ONLINE_GRACE_MS;
+    private long offlineGraceMs = DEFAULT_OFFLINE_GRACE_MS;
+    private String ownUserId;
+    private boolean foreground = false;
+    private boolean connected = false;
+    // What status/{ownUserId} says. Starts out offline, as the onDisconnect handler
+    // of any earlier session has run by the time we connect.
+    private boolean published = false;
+    private ValueEventListener connectedListener;
+
+    private class Watch implements ValueEventListener {
+        final String userId;
+        final List<Subscription> subscriptions = new ArrayList<>();
+        Boolean online; // null until the first value arrives
+        long lastChanged;
+
+        Watch(String userId) {
+            this.userId = userId;
+        }
+
+        @Override
+        public void onDataChange(@NonNull DataSnapshot snapshot) {
+            boolean nowOnline = "online".equals(snapshot.child("state").getValue(String.class));
+            Long changedAt = snapshot.child("lastChanged").getValue(Long.class);
+            lastChanged = changedAt != null ? changedAt : 0;
+            if (online != null && online == nowOnline) {
+                return;
+            }
+            online = nowOnline;
+            for (Subscription subscription : subscriptions) {
+                subscription.changes.put(userId, nowOnline);
+            }
+        }
+
+        @Override
+        public void onCancelled(@NonNull DatabaseError error) {
+            Log.e(TAG, "Presence listener for " + userId + " cancelled", error.toException());
+        }
+    }
+
+    public class Subscription {
+        private final Set<String> userIds = new HashSet<>();
+        private final FrameBatcher<String, Boolean> changes;
+
+        private Subscription(Observer observer) {
+            changes = new FrameBatcher<>(0, observer::onPresenceChanged);
+        }
+
+        public void add(String userId) {
+            if (userId == null || !userIds.add(userId)) {
+                return;
+            }
+
+            Watch watch = watches.get(userId);
+            if (watch == null) {
+                watch = new Watch(userId);
+                watches.put(userId, watch);
+                statusRef.child(userId).addValueEventListener(watch);
+            } else if (watch.online != null) {
+                // Already known, no need to wait for the listener
+                changes.put(userId, watch.online);
+            }
+            watch.subscriptions.add(this);
+        }
+
+        public void addAll(Collection<String> ids) {
+            for (String userId : ids) {
+                add(userId);
+            }
+        }
+
+        public void remove(String userId) {
+            if (!userIds.remove(userId)) {
+                return;
+            }
+
+            Watch watch = watches.get(userId);
+            if (watch != null) {
+                watch.subscriptions.remove(this);
+                if (watch.subscriptions.isEmpty()) {
+                    statusRef.child(userId).removeEventListener(watch);
+                    watches.remove(userId);
+                }
+            }
+        }
+
+        public void cancel() {
+            for (String userId : new ArrayList<>(userIds)) {
+                remove(userId);
+            }
+            changes.cancel();
+        }
+    }
+
+    public static synchronized PresenceManager getInstance() {
+        if (instance == null) {
+            instance = new PresenceManager(FirebaseDatabase.getInstance());
+        }
+        return instance;
+    }
+
+    private PresenceManager(FirebaseDatabase database) {
+        this.statusRef = database.getReference().child("status");
+        this.connectedRef = database.getReference(".info/connected");
+    }
+
+    public Subscription observe(Observer observer) {
+        return new Subscription(observer);
+    }
+
+    // Last known state of a watched user, null if not watched or not known yet
+    @Nullable
+    public Boolean isOnline(String userId) {
+        Watch watch = watches.get(userId);
+        return watch != null ? watch.online : null;
+    }
+
+    // Server time of the last state change of a watched user, 0 if not known
+    public long getLastChanged(String userId) {
+        Watch watch = watches.get(userId);
+        return watch != null ? watch.lastChanged : 0;
+    }
+
+    public void setGracePeriods(long onlineGraceMs, long offlineGraceMs) {
+        this.onlineGraceMs = onlineGraceMs;
+        this.offlineGraceMs = offlineGraceMs;
+    }
+
+    // Starts publishing the presence of the signed-in user
+    public void start(String userId) {
+        if (userId.equals(ownUserId)) {
+            return;
+        }
+        stop();
+
+        ownUserId = userId;
+        connectedListener = connectedRef.addValueEventListener(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                connected = Boolean.TRUE.equals(snapshot.getValue(Boolean.class));
+                Log.d(TAG, "Connection state changed: " + (connected ? "online" : "offline"));
+                if (!connected) {
+                    // The server runs our onDisconnect handler
+                    published = false;
+                }
+                evaluate();
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                Log.e(TAG, "Error in connection listener", error.toException());
+            }
+        });
+    }
+
+    // Marks the signed-in user offline right away and stops publishing, call before
+    // signing out while the write is still authorized
+    public void stop() {
+        handler.removeCallbacks(settle);
+        if (ownUserId == null) {
+            return;
+        }
+
+        if (published) {
+            DatabaseReference ref = statusRef.child(ownUserId);
+            ref.onDisconnect().cancel();
+            ref.updateChildren(statusValues(false));
+        }
+        connectedRef.removeEventListener(connectedListener);
+        connectedListener = null;
+        ownUserId = null;
+        connected = false;
+        published = false;
+    }
+
+    // Whether any activity of the app is started
+    public void setForeground(boolean foreground) {
+        if (this.foreground != foreground) {
+            this.foreground = foreground;
+            evaluate();
+        }
+    }
+
+    private boolean wantOnline() {
+        return ownUserId != null && foreground;
+    }
+
+    private void evaluate() {
+        handler.removeCallbacks(settle);
+        if (ownUserId == null || !connected) {
+            // Nothing can be written, on reconnect we start over from offline
+            return;
+        }
+
+        boolean online = wantOnline();
+        if (published == online) {
+            // Back to the published state within the grace period
+            return;
+        }
+        handler.postDelayed(settle, online ? onlineGraceMs : offlineGraceMs);
+    }
+
+    private void settle() {
+        boolean online = wantOnline();
+        if (ownUserId == null || !connected || published == online) {
+            return;
+        }
+        published = online;
+        Log.d(TAG, "Publishing own state: " + (online ? "online" : "offline"));
+
+        String userId = ownUserId;
+        DatabaseReference ref = statusRef.child(userId);
+        if (online) {
+            // Re-armed on every transition, the handler only fires once
+            ref.onDisconnect().updateChildren(statusValues(false));
+        }
+        ref.updateChildren(statusValues(online))
+                .addOnFailureListener(e -> Log.e(TAG, "Error publishing state of " + userId, e));
+    }
+
+    private static Map<String, Object> statusValues(boolean online) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("state", online ? "online" : "offline");
+        values.put("lastChanged", ServerValue.TIMESTAMP);
+        return values;
+    }
+}
@@ -0,0 +1,136 @@
+package edu.cuhk.cuchat.utils;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cuhk.cuchat.models.ChatListItem;
+
+/**
+ * Chat list items kept sorted by last message time (newest first, ties broken by chatId),
+ * with the All, Unread and Read tabs maintained as separate sorted views.
+ *
+ * Positions are found by binary search, so an update reports exactly which rows of each
+ * view were inserted, removed or moved and nothing is ever re-sorted. The views are
+ * array backed because RecyclerView addresses rows by position; shifting the tail on
+ * insert is a single array copy.
+ *
+ * An item's lastMessageTime and unread flag must not be changed while it is indexed,
+ * put a new item instead. Must be used from one thread.
+ */
+public class ChatIndex {
+
+    // Same order as the tabs in activity_chat_list
+    public static final int VIEW_ALL = 0;
+    public static final int VIEW_UNREAD = 1;
+    public static final int VIEW_READ = 2;
+
+    private static final Comparator<ChatListItem> ORDER = (item1, item2) -> {
+        int byTime = Long.compare(item2.getLastMessageTime(), item1.getLastMessageTime());
+        return byTime != 0 ? byTime : item1.getChatId().compareTo(item2.getChatId());
+    };
+
+    public interface Listener {
+        // from is -1 for an insertion, to is -1 for a removal, from == to for an
+        // in-place change
+        void onPositionChanged(int view, int from, int to);
+    }
+
+    private final Map<String, ChatListItem> items = new HashMap<>();
+    private final List<ChatListItem> all = new ArrayList<>();
+    private final List<ChatListItem> unread = new ArrayList<>();
+    private final List<ChatListItem> read = new ArrayList<>();
+
+    // Live read-only view, suitable for handing to an adapter
+    public List<ChatListItem> view(int view) {
+        return Collections.unmodifiableList(list(view));
+    }
+
+    // Position of a chat within a view, or -1 if it is not in that view
+    public int indexOf(int view, String chatId) {
+        ChatListItem item = items.get(chatId);
+        if (item == null) {
+            return -1;
+        }
+        int position = Collections.binarySearch(list(view), item, ORDER);
+        return position >= 0 ? position : -1;
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    @Nullable
+    public ChatListItem get(String chatId) {
+        return items.get(chatId);
+    }
+
+    public void put(ChatListItem item, @Nullable Listener listener) {
+        ChatListItem old = items.put(item.getChatId(), item);
+        boolean wasUnread = old != null && old.isUnread();
+        boolean wasRead = old != null && !old.isUnread();
+
+        reposition(VIEW_ALL, all, old, item, listener);
+        reposition(VIEW_UNREAD, unread, wasUnread ? old : null, item.isUnread() ? item : null, listener);
+        reposition(VIEW_READ, read, wasRead ? old : null, !item.isUnread() ? item : null, listener);
+    }
+
+    public void remove(String chatId, @Nullable Listener listener) {
+        ChatListItem old = items.remove(chatId);
+        if (old == null) {
+            return;
+        }
+        reposition(VIEW_ALL, all, old, null, listener);
+        reposition(VIEW_UNREAD, unread, old.isUnread() ? old : null, null, listener);
+        reposition(VIEW_READ, read, !old.isUnread() ? old : null, null, listener);
+    }
+
+    public void clear() {
+        items.clear();
+        all.clear();
+        unread.clear();
+        read.clear();
+    }
+
+    private List<ChatListItem> list(int view) {
+        switch (view) {
+            case VIEW_UNREAD:
+                return unread;
+            case VIEW_READ:
+                return read;
+            default:
+                return all;
+        }
+    }
+
+    private static void reposition(int view, List<ChatListItem> list, ChatListItem old, ChatListItem item,
+                                   Listener listener) {
+        int from = -1;
+        if (old != null) {
+            from = Collections.binarySearch(list, old, ORDER);
+            if (from < 0) {
+                // Only if the old item was mutated while indexed
+                from = list.indexOf(old);
+            }
+            if (from >= 0) {
+                list.remove(from);
+            }
+        }
+
+        int to = -1;
+        if (item != null) {
+            int found = Collections.binarySearch(list, item, ORDER);
+            to = found >= 0 ? found : -(found + 1);
+            list.add(to, item);
+        }
+
+        if (listener != null && (from >= 0 || to >= 0)) {
+            listener.onPositionChanged(view, from, to);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package edu.cuhk.cuchat.utils;
+
+import java.util.PriorityQueue;
+
+/**
+ * Finds the K points nearest to an origin within a radius.
+ *
+ * Works on plain lat/lng arrays, so it can run on a background thread without touching
+ * snapshots or views. A cheap estimate that never exceeds the true distance rejects
+ * points that are clearly outside the radius before the haversine distance is computed,
+ * and a max-heap bounded at K keeps the best candidates, so ranking n points is O(n log K).
+ */
+public class DistanceRanker {
+
+    private static final double EARTH_RADIUS_KM = 6371.0;
+
+    // The estimate is a lower bound up to the small-angle error of its latitude term, a
+    // fraction of a percent at city scale, stay well clear of rejecting anything the exact
+    // distance would accept
+    private static final double ESTIMATE_SLACK = 1.05;
+
+    public static class Result {
+        // Nearest first, indices into the input arrays
+        public final int[] indices;
+        public final double[] distancesKm;
+
+        Result(int[] indices, double[] distancesKm) {
+            this.indices = indices;
+            this.distancesKm = distancesKm;
+        }
+
+        public int size() {
+            return indices.length;
+        }
+    }
+
+    private DistanceRanker() {
+    }
+
+    // Considers the first count entries of lats/lngs
+    public static Result nearest(double originLat, double originLng, double[] lats, double[] lngs,
+                                 int count, double radiusKm, int k) {
+        if (k <= 0 || count <= 0) {
+            return new Result(new int[0], new double[0]);
+        }
+
+        // Longitude degrees are shortest at the most poleward latitude a point in the radius
+        // can have, and count for nothing once the radius reaches a pole
+        double polewardLat = Math.abs(originLat) + Math.toDegrees(radiusKm / EARTH_RADIUS_KM);
+        double cosLat = polewardLat < 90 ? Math.cos(Math.toRadians(polewardLat)) : 0;
+        double estimateLimit = radiusKm * ESTIMATE_SLACK;
+        double[] distances = new double[count];
+
+        // Farthest of the kept candidates on top, so it is the one to evict
+        PriorityQueue<Integer> kept = new PriorityQueue<>(Math.min(k, count) + 1,
+                (a, b) -> Double.compare(distances[b], distances[a]));
+
+        for (int i = 0; i < count; i++) {
+            double dLat = Math.toRadians(lats[i] - originLat);
+            // Chord rather than arc, so a large longitude difference near a pole is not overrated
+            double dLng = 2 * Math.sin(Math.toRadians(Math.abs(wrapDegrees(lngs[i] - originLng))) / 2) * cosLat;
+            double estimate = EARTH_RADIUS_KM * Math.sqrt(dLat * dLat + dLng * dLng);
+            if (estimate > estimateLimit) {
+                continue;
+            }
+
+            double distance = GeoHash.distanceKm(originLat, originLng, lats[i], lngs[i]);
+            if (distance > radiusKm) {
+                continue;
+            }
+            if (kept.size() == k && distance >= distances[kept.peek()]) {
+                continue;
+            }
+
+            distances[i] = distance;
+            kept.add(i);
+            if (kept.size() > k) {
+                kept.poll();
+            }
+        }
+
+        // Drained farthest first, fill from the back
+        int size = kept.size();
+        int[] indices = new int[size];
+        double[] distancesKm = new double[size];
+        for (int slot = size - 1; slot >= 0; slot--) {
+            int index = kept.poll();
+            indices[slot] = index;
+            distancesKm[slot] = distances[index];
+        }
+        return new Result(indices, distancesKm);
+    }
+
+    private static double wrapDegrees(double degrees) {
+        if (degrees > 180) {
+            return degrees - 360;
+        }
+        if (degrees < -180) {
+            return degrees + 360;
+        }
+        return degrees;
+    }
+}
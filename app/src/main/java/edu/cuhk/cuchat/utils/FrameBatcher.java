@@ -0,0 +1,76 @@
+package edu.cuhk.cuchat.utils;
+
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects keyed updates and hands them over at most once per frame.
+ *
+ * Updates to the same key within one frame collapse into the latest one, a null value
+ * stands for a removal. With a minimum interval, consecutive flushes are additionally
+ * spaced at least that far apart.
+ *
+ * Must be used from the main thread.
+ */
+public class FrameBatcher<K, V> {
+
+    public interface Sink<K, V> {
+        // In the order the keys were first updated, null values are removals
+        void apply(Map<K, V> updates);
+    }
+
+    private final long minIntervalMs;
+    private final Sink<K, V> sink;
+    private final Map<K, V> pending = new LinkedHashMap<>();
+    private final Choreographer.FrameCallback frameCallback = frameTimeNanos -> flush();
+
+    private boolean scheduled = false;
+    private long lastFlushMs = 0;
+
+    public FrameBatcher(long minIntervalMs, Sink<K, V> sink) {
+        this.minIntervalMs = minIntervalMs;
+        this.sink = sink;
+    }
+
+    public void put(K key, V value) {
+        pending.put(key, value);
+        schedule();
+    }
+
+    public void remove(K key) {
+        put(key, null);
+    }
+
+    public void cancel() {
+        pending.clear();
+        if (scheduled) {
+            Choreographer.getInstance().removeFrameCallback(frameCallback);
+            scheduled = false;
+        }
+    }
+
+    private void schedule() {
+        if (scheduled) {
+            return;
+        }
+        scheduled = true;
+
+        long wait = Math.max(0, lastFlushMs + minIntervalMs - SystemClock.uptimeMillis());
+        Choreographer.getInstance().postFrameCallbackDelayed(frameCallback, wait);
+    }
+
+    private void flush() {
+        scheduled = false;
+        if (pending.isEmpty()) {
+            return;
+        }
+        lastFlushMs = SystemClock.uptimeMillis();
+
+        Map<K, V> updates = new LinkedHashMap<>(pending);
+        pending.clear();
+        sink.apply(updates);
+    }
+}
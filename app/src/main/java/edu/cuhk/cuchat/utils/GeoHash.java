@@ -0,0 +1,156 @@
+package edu.cuhk.cuchat.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Geohash encoding and radius covering, for range queries on the users' geohash field.
+ *
+ * A geohash names a lat/lng cell, and every point inside that cell has a hash starting
+ * with the cell's hash. So all users in a cell are one orderBy("geohash") range query,
+ * startAt(prefix).endAt(prefix + END_SUFFIX). A circle is covered by the cell around its
+ * centre plus the 8 neighbours, at the finest precision whose cells are at least as
+ * large as the circle's extent in latitude and longitude. A circle around a pole, or too
+ * large for that, is covered by whole rows of the coarsest cells instead.
+ */
+public class GeoHash {
+
+    // Precision written to the user documents, cells of roughly 5m x 5m
+    public static final int STORED_PRECISION = 9;
+
+    // Sorts after every geohash character, for the end of a prefix range
+    public static final String END_SUFFIX = "\uf8ff";
+
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+    private static final double EARTH_RADIUS_KM = 6371.0;
+
+    private GeoHash() {
+    }
+
+    public static String encode(double lat, double lng, int precision) {
+        double minLat = -90, maxLat = 90;
+        double minLng = -180, maxLng = 180;
+        StringBuilder hash = new StringBuilder(precision);
+        boolean evenBit = true; // Bits alternate, starting with longitude
+        int bit = 0;
+        int ch = 0;
+
+        while (hash.length() < precision) {
+            if (evenBit) {
+                double mid = (minLng + maxLng) / 2;
+                if (lng >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLng = mid;
+                } else {
+                    ch = ch << 1;
+                    maxLng = mid;
+                }
+            } else {
+                double mid = (minLat + maxLat) / 2;
+                if (lat >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLat = mid;
+                } else {
+                    ch = ch << 1;
+                    maxLat = mid;
+                }
+            }
+            evenBit = !evenBit;
+
+            if (++bit == 5) {
+                hash.append(BASE32.charAt(ch));
+                bit = 0;
+                ch = 0;
+            }
+        }
+        return hash.toString();
+    }
+
+    // Distinct cell prefixes that together contain every point within radiusKm of the centre
+    public static List<String> coveringPrefixes(double lat, double lng, double radiusKm) {
+        // Extent of the circle: exact in latitude, and in longitude at its widest point,
+        // which is poleward of the centre
+        double latSpan = Math.toDegrees(radiusKm / EARTH_RADIUS_KM);
+        if (Math.abs(lat) + latSpan >= 90 || latSpan > cellHeightDegrees(1)) {
+            return bandPrefixes(lat - latSpan, lat + latSpan);
+        }
+        double lngSpan = Math.toDegrees(Math.asin(
+                Math.sin(Math.toRadians(latSpan)) / Math.cos(Math.toRadians(lat))));
+        if (lngSpan > cellWidthDegrees(1)) {
+            return bandPrefixes(lat - latSpan, lat + latSpan);
+        }
+
+        int precision = precisionFor(latSpan, lngSpan);
+        double cellHeight = cellHeightDegrees(precision);
+        double cellWidth = cellWidthDegrees(precision);
+
+        List<String> prefixes = new ArrayList<>(9);
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                double cellLat = Math.max(-90, Math.min(90, lat + dy * cellHeight));
+                double cellLng = wrapLongitude(lng + dx * cellWidth);
+                String prefix = encode(cellLat, cellLng, precision);
+                if (!prefixes.contains(prefix)) {
+                    prefixes.add(prefix);
+                }
+            }
+        }
+        return prefixes;
+    }
+
+    // Great-circle distance (haversine)
+    public static double distanceKm(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    // Finest precision whose cells are at least latSpan tall and lngSpan wide
+    private static int precisionFor(double latSpan, double lngSpan) {
+        for (int precision = STORED_PRECISION; precision > 1; precision--) {
+            if (cellHeightDegrees(precision) >= latSpan && cellWidthDegrees(precision) >= lngSpan) {
+                return precision;
+            }
+        }
+        return 1;
+    }
+
+    // Every precision 1 cell of the rows between the two latitudes, all the way around
+    private static List<String> bandPrefixes(double minLat, double maxLat) {
+        double cellHeight = cellHeightDegrees(1);
+        double cellWidth = cellWidthDegrees(1);
+        List<String> prefixes = new ArrayList<>();
+        for (double rowLat = -90; rowLat < 90; rowLat += cellHeight) {
+            if (rowLat + cellHeight < minLat || rowLat > maxLat) {
+                continue;
+            }
+            for (double colLng = -180; colLng < 180; colLng += cellWidth) {
+                prefixes.add(encode(rowLat + cellHeight / 2, colLng + cellWidth / 2, 1));
+            }
+        }
+        return prefixes;
+    }
+
+    private static double cellHeightDegrees(int precision) {
+        int latBits = (5 * precision) / 2;
+        return 180.0 / (1L << latBits);
+    }
+
+    private static double cellWidthDegrees(int precision) {
+        int lngBits = (5 * precision + 1) / 2;
+        return 360.0 / (1L << lngBits);
+    }
+
+    private static double wrapLongitude(double lng) {
+        if (lng > 180) {
+            return lng - 360;
+        }
+        if (lng < -180) {
+            return lng + 360;
+        }
+        return lng;
+    }
+}
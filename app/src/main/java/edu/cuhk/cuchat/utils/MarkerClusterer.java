@@ -0,0 +1,221 @@
+package edu.cuhk.cuchat.utils;
+
+import com.google.android.gms.maps.CameraUpdateFactory;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shows many user positions on a GoogleMap without a marker per user.
+ *
+ * On each render, the items inside the visible region (plus a margin) are grouped into
+ * grid cells of about {@link #CELL_SIZE_DP} on screen at the current zoom. A cell with
+ * one item gets that item's marker, a cell with several gets one cluster marker. Items
+ * outside the viewport get no marker at all. The markers on the map are diffed against
+ * the new set by key, so a pan or zoom only adds, moves or removes what changed.
+ *
+ * Call {@link #render()} from the map's camera idle listener and route marker clicks
+ * through {@link #onMarkerClick(Marker)}. Must be used from the main thread.
+ */
+public class MarkerClusterer {
+
+    private static final int CELL_SIZE_DP = 64;
+    private static final double TILE_SIZE_DP = 256;
+    private static final double VIEWPORT_MARGIN = 0.25; // Of the visible span, on each side
+    private static final float CLUSTER_HUE = BitmapDescriptorFactory.HUE_ORANGE;
+
+    public static class Item {
+        public final String id;
+        public final LatLng position;
+        public final String title;
+        public final String snippet;
+
+        public Item(String id, LatLng position, String title, String snippet) {
+            this.id = id;
+            this.position = position;
+            this.title = title;
+            this.snippet = snippet;
+        }
+    }
+
+    // What one marker should show
+    private static class Spec {
+        final LatLng position;
+        final String title;
+        final String snippet;
+        final boolean cluster;
+        final LatLngBounds bounds; // Of the clustered items, null for a single item
+
+        Spec(LatLng position, String title, String snippet, boolean cluster, LatLngBounds bounds) {
+            this.position = position;
+            this.title = title;
+            this.snippet = snippet;
+            this.cluster = cluster;
+            this.bounds = bounds;
+        }
+    }
+
+    private final GoogleMap map;
+    private final Map<String, Item> items = new LinkedHashMap<>();
+    private final Map<String, Marker> markers = new HashMap<>(); // By key, see render()
+    private final BitmapDescriptor clusterIcon = BitmapDescriptorFactory.defaultMarker(CLUSTER_HUE);
+
+    public MarkerClusterer(GoogleMap map) {
+        this.map = map;
+    }
+
+    public void setItems(List<Item> newItems) {
+        items.clear();
+        addItems(newItems);
+    }
+
+    public void addItems(List<Item> newItems) {
+        for (Item item : newItems) {
+            items.put(item.id, item);
+        }
+        render();
+    }
+
+    // Removes every item and marker
+    public void clear() {
+        items.clear();
+        for (Marker marker : markers.values()) {
+            marker.remove();
+        }
+        markers.clear();
+    }
+
+    public void render() {
+        LatLngBounds visible = map.getProjection().getVisibleRegion().latLngBounds;
+        LatLngBounds area = expand(visible, VIEWPORT_MARGIN);
+
+        // Degrees covered by one cell at this zoom, the same both ways in Mercator
+        double cellDegrees = 360.0 * CELL_SIZE_DP / (TILE_SIZE_DP * Math.pow(2, map.getCameraPosition().zoom));
+
+        Map<Long, List<Item>> cells = new HashMap<>();
+        for (Item item : items.values()) {
+            if (!area.contains(item.position)) {
+                continue;
+            }
+            long cell = cellKey(item.position, cellDegrees);
+            List<Item> members = cells.get(cell);
+            if (members == null) {
+                members = new ArrayList<>();
+                cells.put(cell, members);
+            }
+            members.add(item);
+        }
+
+        // Single items are keyed by user, so they keep their marker across zoom levels
+        Map<String, Spec> wanted = new HashMap<>();
+        for (Map.Entry<Long, List<Item>> cell : cells.entrySet()) {
+            List<Item> members = cell.getValue();
+            if (members.size() == 1) {
+                Item item = members.get(0);
+                wanted.put("user:" + item.id, new Spec(item.position, item.title, item.snippet, false, null));
+            } else {
+                wanted.put("cell:" + cell.getKey(), clusterSpec(members));
+            }
+        }
+
+        diff(wanted);
+    }
+
+    // Zooms into a cluster, returns false for other markers so the default handling applies
+    public boolean onMarkerClick(Marker marker) {
+        Object tag = marker.getTag();
+        if (!(tag instanceof LatLngBounds)) {
+            return false;
+        }
+        map.animateCamera(CameraUpdateFactory.newLatLngBounds((LatLngBounds) tag, CELL_SIZE_DP * 2));
+        return true;
+    }
+
+    private void diff(Map<String, Spec> wanted) {
+        Iterator<Map.Entry<String, Marker>> shown = markers.entrySet().iterator();
+        while (shown.hasNext()) {
+            Map.Entry<String, Marker> entry = shown.next();
+            if (!wanted.containsKey(entry.getKey())) {
+                entry.getValue().remove();
+                shown.remove();
+            }
+        }
+
+        for (Map.Entry<String, Spec> entry : wanted.entrySet()) {
+            Spec spec = entry.getValue();
+            Marker marker = markers.get(entry.getKey());
+            if (marker == null) {
+                MarkerOptions options = new MarkerOptions()
+                        .position(spec.position)
+                        .title(spec.title)
+                        .snippet(spec.snippet);
+                if (spec.cluster) {
+                    options.icon(clusterIcon);
+                }
+                marker = map.addMarker(options);
+                if (marker == null) {
+                    continue;
+                }
+                markers.put(entry.getKey(), marker);
+            } else {
+                // Only touch what changed, each setter is a call into the map
+                if (!marker.getPosition().equals(spec.position)) {
+                    marker.setPosition(spec.position);
+                }
+                if (spec.title != null && !spec.title.equals(marker.getTitle())) {
+                    marker.setTitle(spec.title);
+                }
+                if (spec.snippet != null && !spec.snippet.equals(marker.getSnippet())) {
+                    marker.setSnippet(spec.snippet);
+                }
+            }
+            marker.setTag(spec.bounds);
+        }
+    }
+
+    private static Spec clusterSpec(List<Item> members) {
+        double lat = 0;
+        double lng = 0;
+        LatLngBounds.Builder bounds = LatLngBounds.builder();
+        for (Item item : members) {
+            lat += item.position.latitude;
+            lng += item.position.longitude;
+            bounds.include(item.position);
+        }
+        LatLng center = new LatLng(lat / members.size(), lng / members.size());
+        return new Spec(center, members.size() + " users", "Tap to zoom in", true, bounds.build());
+    }
+
+    private static long cellKey(LatLng position, double cellDegrees) {
+        long row = (long) Math.floor((position.latitude + 90) / cellDegrees);
+        long col = (long) Math.floor((position.longitude + 180) / cellDegrees);
+        return (row << 32) ^ col;
+    }
+
+    private static LatLngBounds expand(LatLngBounds bounds, double margin) {
+        double latSpan = bounds.northeast.latitude - bounds.southwest.latitude;
+        double lngSpan = bounds.northeast.longitude - bounds.southwest.longitude;
+        if (lngSpan < 0) {
+            lngSpan += 360; // Crosses the antimeridian
+        }
+        if (lngSpan * (1 + 2 * margin) >= 360) {
+            return new LatLngBounds(new LatLng(-90, -180), new LatLng(90, 179.999999));
+        }
+        LatLng southwest = new LatLng(Math.max(-90, bounds.southwest.latitude - latSpan * margin),
+                bounds.southwest.longitude - lngSpan * margin);
+        LatLng northeast = new LatLng(Math.min(90, bounds.northeast.latitude + latSpan * margin),
+                bounds.northeast.longitude + lngSpan * margin);
+        return new LatLngBounds(southwest, northeast);
+    }
+}
@@ -0,0 +1,121 @@
+package edu.cuhk.cuchat.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cuhk.cuchat.models.Message;
+
+/**
+ * Timestamp-ordered list of messages with an O(1) messageId to position lookup.
+ *
+ * Positions are stored relative to a shifting base, so prepending a page of older
+ * history only touches the new entries. Appends are O(1); inserts and removals only
+ * re-index the messages after the affected position, which for live traffic is the
+ * short tail at the bottom of the conversation.
+ */
+public class MessageIndex {
+
+    private final List<Message> messages = new ArrayList<>();
+    private final Map<String, Integer> slots = new HashMap<>();
+    private int base = 0; // position = slot + base
+
+    public int size() {
+        return messages.size();
+    }
+
+    public boolean isEmpty() {
+        return messages.isEmpty();
+    }
+
+    public Message get(int position) {
+        return messages.get(position);
+    }
+
+    public int indexOf(String messageId) {
+        Integer slot = messageId != null ? slots.get(messageId) : null;
+        return slot != null ? slot + base : -1;
+    }
+
+    public boolean contains(String messageId) {
+        return indexOf(messageId) >= 0;
+    }
+
+    // Copy for handing to the adapter, which must never see later mutations
+    public List<Message> snapshot() {
+        return new ArrayList<>(messages);
+    }
+
+    public void clear() {
+        messages.clear();
+        slots.clear();
+        base = 0;
+    }
+
+    public void replaceAll(List<Message> newMessages) {
+        clear();
+        for (Message message : newMessages) {
+            append(message);
+        }
+    }
+
+    public void append(Message message) {
+        messages.add(message);
+        slots.put(message.getMessageId(), messages.size() - 1 - base);
+    }
+
+    // Older messages, ordered oldest first, in front of everything loaded so far
+    public void prependAll(List<Message> olderMessages) {
+        int count = olderMessages.size();
+        messages.addAll(0, olderMessages);
+        base += count;
+        for (int i = 0; i < count; i++) {
+            slots.put(olderMessages.get(i).getMessageId(), i - base);
+        }
+    }
+
+    // Replaces the message with the same ID, returns its position or -1 if unknown
+    public int update(Message message) {
+        int position = indexOf(message.getMessageId());
+        if (position >= 0) {
+            messages.set(position, message);
+        }
+        return position;
+    }
+
+    // Inserts by timestamp, searching from the newest end where live messages land.
+    // Returns the position the message ended up at.
+    public int insertSorted(Message message) {
+        int position = messages.size();
+        while (position > 0 && messages.get(position - 1).getTimestamp() > message.getTimestamp()) {
+            position--;
+        }
+
+        if (position == messages.size()) {
+            append(message);
+        } else {
+            messages.add(position, message);
+            reindexFrom(position);
+        }
+        return position;
+    }
+
+    // Returns the position the message was removed from, or -1 if unknown
+    public int remove(String messageId) {
+        int position = indexOf(messageId);
+        if (position < 0) {
+            return -1;
+        }
+        messages.remove(position);
+        slots.remove(messageId);
+        reindexFrom(position);
+        return position;
+    }
+
+    private void reindexFrom(int position) {
+        for (int i = position; i < messages.size(); i++) {
+            slots.put(messages.get(i).getMessageId(), i - base);
+        }
+    }
+}
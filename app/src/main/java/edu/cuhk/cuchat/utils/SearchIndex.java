@@ -0,0 +1,430 @@
+package edu.cuhk.cuchat.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory search over short texts such as usernames, emails and chat names, for
+ * search-as-you-type without a round trip.
+ *
+ * Texts are lowercased, split into words and kept in a trie. A query word is matched by
+ * walking the trie with one row of an edit distance table per level, so words starting
+ * with the query word, or with something one or two typos away from it, are found
+ * without looking at the words on other branches. Every word of a query must match a
+ * word of the entry; entries are ranked by how well (exact, prefix, then typo), with
+ * matches at the start of the first text ranked first.
+ *
+ * Entries are put and removed one at a time as data arrives. Must be used from one thread.
+ */
+public class SearchIndex {
+
+    private static final int MIN_FUZZY_LENGTH = 3; // Shorter words match too much with a typo
+    private static final int TWO_TYPOS_LENGTH = 6;
+    private static final int MAX_CANDIDATES = 256; // Per query, before ranking
+
+    private static final int SCORE_EXACT = 4;
+    private static final int SCORE_PREFIX = 3;
+    private static final int SCORE_ONE_TYPO = 2;
+    private static final int SCORE_TWO_TYPOS = 1;
+    private static final int LEADING_BONUS = 2; // Query starts the first text, e.g. the name
+
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private static class Entry {
+        final String id;
+        final String leading; // First text, normalized
+        final Set<String> words;
+
+        Entry(String id, String leading, Set<String> words) {
+            this.id = id;
+            this.leading = leading;
+            this.words = words;
+        }
+    }
+
+    private static class Node {
+        final char key;
+        char[] keys = NO_KEYS; // Sorted, parallel to children
+        Node[] children = NO_CHILDREN;
+        int childCount;
+        Set<String> ids; // Entries with a word ending here
+        int size; // Entry words ending in this subtree
+
+        Node(char key) {
+            this.key = key;
+        }
+
+        Node child(char c) {
+            int index = Arrays.binarySearch(keys, 0, childCount, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node addChild(char c) {
+            int index = Arrays.binarySearch(keys, 0, childCount, c);
+            if (index >= 0) {
+                return children[index];
+            }
+            index = -(index + 1);
+            if (childCount == keys.length) {
+                int capacity = Math.max(2, childCount * 2);
+                keys = Arrays.copyOf(keys, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            System.arraycopy(keys, index, keys, index + 1, childCount - index);
+            System.arraycopy(children, index, children, index + 1, childCount - index);
+            Node child = new Node(c);
+            keys[index] = c;
+            children[index] = child;
+            childCount++;
+            return child;
+        }
+
+        void removeChild(char c) {
+            int index = Arrays.binarySearch(keys, 0, childCount, c);
+            if (index < 0) {
+                return;
+            }
+            System.arraycopy(keys, index + 1, keys, index, childCount - index - 1);
+            System.arraycopy(children, index + 1, children, index, childCount - index - 1);
+            childCount--;
+            children[childCount] = null;
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Node root = new Node('\0');
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean contains(String id) {
+        return entries.containsKey(id);
+    }
+
+    // Indexes the texts under id, replacing what was indexed for it before. Null texts are skipped.
+    public void put(String id, String... texts) {
+        remove(id);
+
+        Set<String> words = new HashSet<>();
+        for (String text : texts) {
+            words.addAll(words(text));
+        }
+        String leading = texts.length > 0 && texts[0] != null ? normalize(texts[0]) : "";
+        entries.put(id, new Entry(id, leading, words));
+
+        for (String word : words) {
+            Node node = root;
+            node.size++;
+            for (int i = 0; i < word.length(); i++) {
+                node = node.addChild(word.charAt(i));
+                node.size++;
+            }
+            if (node.ids == null) {
+                node.ids = new HashSet<>();
+            }
+            node.ids.add(id);
+        }
+    }
+
+    public void remove(String id) {
+        Entry old = entries.remove(id);
+        if (old == null) {
+            return;
+        }
+
+        for (String word : old.words) {
+            Node[] path = new Node[word.length() + 1];
+            path[0] = root;
+            for (int i = 0; i < word.length() && path[i] != null; i++) {
+                path[i + 1] = path[i].child(word.charAt(i));
+            }
+            Node last = path[word.length()];
+            if (last == null || last.ids == null || !last.ids.remove(id)) {
+                continue;
+            }
+
+            // Unlink the branch this word no longer keeps alive
+            for (int i = word.length(); i >= 0; i--) {
+                path[i].size--;
+                if (i > 0 && path[i].size == 0) {
+                    path[i - 1].removeChild(path[i].key);
+                }
+            }
+            if (last.ids.isEmpty()) {
+                last.ids = null;
+            }
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        root.keys = NO_KEYS;
+        root.children = NO_CHILDREN;
+        root.childCount = 0;
+        root.ids = null;
+        root.size = 0;
+    }
+
+    // Trie nodes below the root, for tests
+    int nodeCount() {
+        int count = 0;
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            for (int i = 0; i < node.childCount; i++) {
+                stack.push(node.children[i]);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // IDs of the entries matching every word of the query, best first, at most limit of them
+    public List<String> search(String query, int limit) {
+        List<String> queryWords = words(query);
+        if (queryWords.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        // Candidates come from the trie for the longest query word, usually the most
+        // selective, the other words are checked against each candidate's own words
+        String primary = queryWords.get(0);
+        for (String queryWord : queryWords) {
+            if (queryWord.length() > primary.length()) {
+                primary = queryWord;
+            }
+        }
+        Map<String, Integer> candidates = match(primary);
+
+        String normalizedQuery = normalize(query);
+        final Map<String, Integer> totals = new HashMap<>(candidates.size());
+        List<Entry> ranked = new ArrayList<>(candidates.size());
+        for (Map.Entry<String, Integer> candidate : candidates.entrySet()) {
+            Entry entry = entries.get(candidate.getKey());
+            int total = candidate.getValue();
+            boolean primarySeen = false;
+            for (String queryWord : queryWords) {
+                if (!primarySeen && queryWord.equals(primary)) {
+                    primarySeen = true;
+                    continue;
+                }
+                int score = bestScore(queryWord, entry.words);
+                if (score == 0) {
+                    total = 0;
+                    break;
+                }
+                total += score;
+            }
+            if (total == 0) {
+                continue;
+            }
+            if (entry.leading.startsWith(normalizedQuery)) {
+                total += LEADING_BONUS;
+            }
+            totals.put(entry.id, total);
+            ranked.add(entry);
+        }
+
+        // Higher score first, then the shorter (closer) name, then by ID for a stable order
+        Collections.sort(ranked, (a, b) -> {
+            int byScore = Integer.compare(totals.get(b.id), totals.get(a.id));
+            if (byScore != 0) {
+                return byScore;
+            }
+            int byLength = Integer.compare(a.leading.length(), b.leading.length());
+            return byLength != 0 ? byLength : a.id.compareTo(b.id);
+        });
+
+        List<String> ids = new ArrayList<>(Math.min(limit, ranked.size()));
+        for (int i = 0; i < ranked.size() && ids.size() < limit; i++) {
+            ids.add(ranked.get(i).id);
+        }
+        return ids;
+    }
+
+    // Best score of each entry with a word matching queryWord
+    private Map<String, Integer> match(String queryWord) {
+        Map<String, Integer> scores = new HashMap<>();
+        int maxTypos = maxTypos(queryWord);
+
+        // Words starting with the query word go first, typo matches on branches earlier in
+        // the alphabet must not use up MAX_CANDIDATES before them
+        Node node = root;
+        for (int i = 0; i < queryWord.length() && node != null; i++) {
+            node = node.child(queryWord.charAt(i));
+        }
+        if (node != null) {
+            collect(node, SCORE_PREFIX, scores);
+            if (node.ids != null) {
+                for (String id : node.ids) {
+                    raise(scores, id, SCORE_EXACT);
+                }
+            }
+        }
+        if (maxTypos == 0) {
+            return scores;
+        }
+
+        // Distances between the query word's prefixes and the empty path at the root
+        int[] row = new int[queryWord.length() + 1];
+        for (int j = 0; j < row.length; j++) {
+            row[j] = j;
+        }
+        for (int i = 0; i < root.childCount && scores.size() < MAX_CANDIDATES; i++) {
+            descend(root.children[i], queryWord, row, null, '\0', maxTypos, Integer.MAX_VALUE, scores);
+        }
+        return scores;
+    }
+
+    // row[j] is the edit distance between the first j characters of the query word and the
+    // path to node. matchedAbove is the distance at which an ancestor already matched.
+    private void descend(Node node, String queryWord, int[] parentRow, int[] grandparentRow, char parentKey,
+                         int maxTypos, int matchedAbove, Map<String, Integer> scores) {
+        int n = queryWord.length();
+        int[] row = new int[n + 1];
+        row[0] = parentRow[0] + 1;
+        int rowMin = row[0];
+        for (int j = 1; j <= n; j++) {
+            char q = queryWord.charAt(j - 1);
+            int value = Math.min(Math.min(parentRow[j] + 1, row[j - 1] + 1),
+                    parentRow[j - 1] + (q == node.key ? 0 : 1));
+            if (grandparentRow != null && j > 1 && q == parentKey && queryWord.charAt(j - 2) == node.key) {
+                value = Math.min(value, grandparentRow[j - 2] + 1); // Swapped neighbours
+            }
+            row[j] = value;
+            rowMin = Math.min(rowMin, value);
+        }
+
+        int distance = row[n];
+        if (distance == 0) {
+            return; // The path is the query word, match() has collected everything below
+        }
+        if (distance <= maxTypos && distance < matchedAbove) {
+            collect(node, distance == 1 ? SCORE_ONE_TYPO : SCORE_TWO_TYPOS, scores);
+            matchedAbove = distance;
+        }
+        if (rowMin > maxTypos) {
+            return; // No longer path can get back within maxTypos
+        }
+
+        for (int i = 0; i < node.childCount && scores.size() < MAX_CANDIDATES; i++) {
+            descend(node.children[i], queryWord, row, parentRow, node.key, maxTypos, matchedAbove, scores);
+        }
+    }
+
+    // Every entry with a word in the subtree, in word order. Depth first, so long shared
+    // prefixes do not have to be walked level by level before the first word is reached.
+    private static void collect(Node from, int score, Map<String, Integer> scores) {
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(from);
+        while (!stack.isEmpty() && scores.size() < MAX_CANDIDATES) {
+            Node node = stack.pop();
+            if (node.ids != null) {
+                for (String id : node.ids) {
+                    raise(scores, id, score);
+                }
+            }
+            for (int i = node.childCount - 1; i >= 0; i--) {
+                stack.push(node.children[i]);
+            }
+        }
+    }
+
+    private static void raise(Map<String, Integer> scores, String id, int score) {
+        Integer current = scores.get(id);
+        if (current == null || current < score) {
+            scores.put(id, score);
+        }
+    }
+
+    // Score of the entry word that matches queryWord best, 0 if none does
+    private static int bestScore(String queryWord, Set<String> words) {
+        int maxTypos = maxTypos(queryWord);
+        int best = 0;
+        for (String word : words) {
+            if (word.equals(queryWord)) {
+                return SCORE_EXACT;
+            }
+            if (word.startsWith(queryWord)) {
+                best = Math.max(best, SCORE_PREFIX);
+            } else if (maxTypos > 0 && best < SCORE_ONE_TYPO) {
+                int typos = prefixDistance(queryWord, word, maxTypos);
+                if (typos <= maxTypos) {
+                    best = Math.max(best, typos == 1 ? SCORE_ONE_TYPO : SCORE_TWO_TYPOS);
+                }
+            }
+        }
+        return best;
+    }
+
+    private static int maxTypos(String queryWord) {
+        if (queryWord.length() < MIN_FUZZY_LENGTH) {
+            return 0;
+        }
+        return queryWord.length() >= TWO_TYPOS_LENGTH ? 2 : 1;
+    }
+
+    // Fewest edits turning the query word into some prefix of word, the same measure as
+    // descend() uses, or more than limit once that is certain
+    private static int prefixDistance(String queryWord, String word, int limit) {
+        int n = queryWord.length();
+        int[] grandparentRow = null;
+        int[] parentRow = new int[n + 1];
+        for (int j = 0; j <= n; j++) {
+            parentRow[j] = j;
+        }
+
+        int best = parentRow[n];
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            int[] row = new int[n + 1];
+            row[0] = parentRow[0] + 1;
+            int rowMin = row[0];
+            for (int j = 1; j <= n; j++) {
+                char q = queryWord.charAt(j - 1);
+                int value = Math.min(Math.min(parentRow[j] + 1, row[j - 1] + 1),
+                        parentRow[j - 1] + (q == c ? 0 : 1));
+                if (grandparentRow != null && j > 1 && q == word.charAt(i - 1) && queryWord.charAt(j - 2) == c) {
+                    value = Math.min(value, grandparentRow[j - 2] + 1);
+                }
+                row[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            best = Math.min(best, row[n]);
+            if (rowMin > limit) {
+                break;
+            }
+            grandparentRow = parentRow;
+            parentRow = row;
+        }
+        return best <= limit ? best : limit + 1;
+    }
+
+    private static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        for (String word : normalize(text).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    private static String normalize(String text) {
+        return text.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,245 @@
+package edu.cuhk.cuchat.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * In-memory index of user positions, bucketed into a fixed lat/lng grid.
+ *
+ * A radius query only looks at the buckets overlapping the circle's bounding box, taking
+ * every column when the circle reaches a pole. A nearest-K query walks rings of buckets
+ * outwards from the centre until the ring's lower bound on the distance shows that no
+ * closer point can remain. Columns wrap across the antimeridian. Positions are put and
+ * removed one at a time, so the index can follow location updates without being rebuilt.
+ *
+ * Not thread safe, confine it to one thread.
+ */
+public class SpatialIndex {
+
+    private static final double EARTH_RADIUS_KM = 6371.0;
+
+    public static class Hit {
+        public final String id;
+        public final double lat;
+        public final double lng;
+        public final double distanceKm;
+
+        Hit(String id, double lat, double lng, double distanceKm) {
+            this.id = id;
+            this.lat = lat;
+            this.lng = lng;
+            this.distanceKm = distanceKm;
+        }
+    }
+
+    private static class Point {
+        final String id;
+        final double lat;
+        final double lng;
+        final long cell;
+
+        Point(String id, double lat, double lng, long cell) {
+            this.id = id;
+            this.lat = lat;
+            this.lng = lng;
+            this.cell = cell;
+        }
+    }
+
+    private final double cellDegrees;
+    private final int rows;
+    private final int cols;
+    private final Map<String, Point> points = new HashMap<>();
+    private final Map<Long, List<Point>> buckets = new HashMap<>();
+
+    // cellDegrees of 0.01 is a bucket of about 1.1km north to south
+    public SpatialIndex(double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+        this.rows = (int) Math.ceil(180 / cellDegrees);
+        this.cols = (int) Math.ceil(360 / cellDegrees);
+    }
+
+    public int size() {
+        return points.size();
+    }
+
+    public boolean contains(String id) {
+        return points.containsKey(id);
+    }
+
+    // Adds the point, or moves it if the id is already indexed
+    public void put(String id, double lat, double lng) {
+        Point old = points.get(id);
+        long cell = cellOf(row(lat), col(lng));
+        Point point = new Point(id, lat, lng, cell);
+
+        if (old != null) {
+            if (old.cell == cell) {
+                List<Point> bucket = buckets.get(cell);
+                bucket.set(bucket.indexOf(old), point);
+                points.put(id, point);
+                return;
+            }
+            removeFromBucket(old);
+        }
+
+        points.put(id, point);
+        List<Point> bucket = buckets.get(cell);
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            buckets.put(cell, bucket);
+        }
+        bucket.add(point);
+    }
+
+    public boolean remove(String id) {
+        Point old = points.remove(id);
+        if (old == null) {
+            return false;
+        }
+        removeFromBucket(old);
+        return true;
+    }
+
+    public void clear() {
+        points.clear();
+        buckets.clear();
+    }
+
+    // Points within radiusKm, nearest first, at most limit of them
+    public List<Hit> withinRadius(double lat, double lng, double radiusKm, int limit) {
+        // Bounding box of the circle, its widest point in longitude is poleward of the centre
+        double latSpan = Math.toDegrees(radiusKm / EARTH_RADIUS_KM);
+        int minRow = row(Math.max(-90, lat - latSpan));
+        int maxRow = row(Math.min(90, lat + latSpan));
+        int minCol = 0;
+        int colCount = cols;
+        if (Math.abs(lat) + latSpan < 90) {
+            double lngSpan = Math.toDegrees(Math.asin(
+                    Math.sin(Math.toRadians(latSpan)) / Math.cos(Math.toRadians(lat))));
+            minCol = col(lng - lngSpan);
+            colCount = (int) Math.min(cols, Math.ceil(2 * lngSpan / cellDegrees) + 2);
+        }
+
+        List<Point> candidates = new ArrayList<>();
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int i = 0; i < colCount; i++) {
+                List<Point> bucket = buckets.get(cellOf(row, Math.floorMod(minCol + i, cols)));
+                if (bucket != null) {
+                    candidates.addAll(bucket);
+                }
+            }
+        }
+        return rank(lat, lng, candidates, radiusKm, limit);
+    }
+
+    // The k points nearest to the centre, nearest first
+    public List<Hit> nearest(double lat, double lng, int k) {
+        if (k <= 0 || points.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        int centerRow = row(lat);
+        int centerCol = col(lng);
+
+        // Farthest kept point on top
+        PriorityQueue<Hit> kept = new PriorityQueue<>(k + 1,
+                (a, b) -> Double.compare(b.distanceKm, a.distanceKm));
+        int seen = 0;
+        int maxRing = Math.max(rows, cols / 2);
+
+        for (int ring = 0; ring <= maxRing && seen < points.size(); ring++) {
+            if (kept.size() == k && ringDistanceKm(lat, ring) > kept.peek().distanceKm) {
+                break;
+            }
+            if ((long) (2 * ring + 1) * (2 * ring + 1) > 4L * points.size() || 2 * ring + 1 > cols) {
+                // Sparse around the centre, scanning every point is cheaper than more rings.
+                // Also before the ring would wrap around onto columns it has already seen.
+                return rank(lat, lng, new ArrayList<>(points.values()), Double.MAX_VALUE, k);
+            }
+
+            for (int row = centerRow - ring; row <= centerRow + ring; row++) {
+                if (row < 0 || row >= rows) {
+                    continue;
+                }
+                boolean edgeRow = row == centerRow - ring || row == centerRow + ring;
+                int step = edgeRow ? 1 : Math.max(1, 2 * ring);
+                for (int col = centerCol - ring; col <= centerCol + ring; col += step) {
+                    List<Point> bucket = buckets.get(cellOf(row, Math.floorMod(col, cols)));
+                    if (bucket == null) {
+                        continue;
+                    }
+                    for (Point point : bucket) {
+                        seen++;
+                        double distance = GeoHash.distanceKm(lat, lng, point.lat, point.lng);
+                        if (kept.size() < k || distance < kept.peek().distanceKm) {
+                            kept.add(new Hit(point.id, point.lat, point.lng, distance));
+                            if (kept.size() > k) {
+                                kept.poll();
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>(kept);
+        Collections.sort(hits, (a, b) -> Double.compare(a.distanceKm, b.distanceKm));
+        return hits;
+    }
+
+    // Lower bound on the distance from a centre at lat to any point in the ring or beyond.
+    // Such a point is at least ring - 1 whole cells away in latitude, or in longitude, where
+    // the shortest way is the distance to the nearest meridian that many cells off.
+    private double ringDistanceKm(double lat, int ring) {
+        double cellsDegrees = Math.max(0, ring - 1) * cellDegrees;
+        double byLat = Math.toRadians(cellsDegrees);
+        double byLng = cellsDegrees >= 90 ? Math.toRadians(90 - Math.abs(lat))
+                : Math.asin(Math.cos(Math.toRadians(lat)) * Math.sin(Math.toRadians(cellsDegrees)));
+        return EARTH_RADIUS_KM * Math.min(byLat, byLng);
+    }
+
+    private static List<Hit> rank(double lat, double lng, List<Point> candidates, double radiusKm, int limit) {
+        double[] lats = new double[candidates.size()];
+        double[] lngs = new double[candidates.size()];
+        for (int i = 0; i < candidates.size(); i++) {
+            lats[i] = candidates.get(i).lat;
+            lngs[i] = candidates.get(i).lng;
+        }
+
+        DistanceRanker.Result ranked = DistanceRanker.nearest(lat, lng, lats, lngs,
+                candidates.size(), radiusKm, limit);
+        List<Hit> hits = new ArrayList<>(ranked.size());
+        for (int i = 0; i < ranked.size(); i++) {
+            Point point = candidates.get(ranked.indices[i]);
+            hits.add(new Hit(point.id, point.lat, point.lng, ranked.distancesKm[i]));
+        }
+        return hits;
+    }
+
+    private void removeFromBucket(Point point) {
+        List<Point> bucket = buckets.get(point.cell);
+        if (bucket != null) {
+            bucket.remove(point);
+            if (bucket.isEmpty()) {
+                buckets.remove(point.cell);
+            }
+        }
+    }
+
+    private int row(double lat) {
+        return Math.min(rows - 1, (int) Math.floor((lat + 90) / cellDegrees));
+    }
+
+    private int col(double lng) {
+        return Math.floorMod((int) Math.floor((lng + 180) / cellDegrees), cols);
+    }
+
+    private long cellOf(int row, int col) {
+        return (long) row * cols + col;
+    }
+}
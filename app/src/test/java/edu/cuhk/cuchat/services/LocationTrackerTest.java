@@ -0,0 +1,30 @@
+package edu.cuhk.cuchat.services;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LocationTrackerTest {
+
+    private static final long NOW = 10 * 60 * 60 * 1000; // elapsedRealtime of a device up for hours
+
+    @Test
+    public void staleCheckDelay_nothingPublished_waitsFullPeriod() {
+        // No fix yet, e.g. indoors or with location off, must not wake up every second
+        assertEquals(LocationTracker.MAX_STALENESS_MS, LocationTracker.staleCheckDelay(0, NOW));
+    }
+
+    @Test
+    public void staleCheckDelay_waitsUntilLastWriteIsStale() {
+        long publishedAt = NOW - 60 * 1000;
+        assertEquals(LocationTracker.MAX_STALENESS_MS - 60 * 1000,
+                LocationTracker.staleCheckDelay(publishedAt, NOW));
+        assertEquals(LocationTracker.MAX_STALENESS_MS, LocationTracker.staleCheckDelay(NOW, NOW));
+    }
+
+    @Test
+    public void staleCheckDelay_overdue_retriesSoon() {
+        long publishedAt = NOW - 2 * LocationTracker.MAX_STALENESS_MS;
+        assertEquals(1000, LocationTracker.staleCheckDelay(publishedAt, NOW));
+    }
+}
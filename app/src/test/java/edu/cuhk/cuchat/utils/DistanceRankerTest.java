@@ -0,0 +1,77 @@
+package edu.cuhk.cuchat.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class DistanceRankerTest {
+
+    private static final double[][] CENTRES = {
+            {22.4195, 114.2067}, // CUHK
+            {0, 0},
+            {60.17, 24.94},
+            {89.995, 10}, // Points on every side of the pole
+            {-89.99, -150},
+            {52.1, 179.9999}, // Points on both sides of the antimeridian
+            {-15.3, -179.999},
+    };
+
+    @Test
+    public void nearest_matchesBruteForce() {
+        Random random = new Random(18);
+        for (double[] centre : CENTRES) {
+            int count = 2000;
+            double[] lats = new double[count + 10]; // Entries past count must be ignored
+            double[] lngs = new double[count + 10];
+            for (int i = 0; i < lats.length; i++) {
+                double[] point = TestPoints.within(random, centre[0], centre[1], 20);
+                lats[i] = point[0];
+                lngs[i] = point[1];
+            }
+
+            for (double radiusKm : new double[]{0.05, 1, 5, 20, Double.MAX_VALUE}) {
+                for (int k : new int[]{1, 10, 100, Integer.MAX_VALUE}) {
+                    double[] origin = TestPoints.within(random, centre[0], centre[1], 5);
+                    DistanceRanker.Result result = DistanceRanker.nearest(origin[0], origin[1],
+                            lats, lngs, count, radiusKm, k);
+
+                    List<Double> expected = new ArrayList<>();
+                    for (int i = 0; i < count; i++) {
+                        double distance = GeoHash.distanceKm(origin[0], origin[1], lats[i], lngs[i]);
+                        if (distance <= radiusKm) {
+                            expected.add(distance);
+                        }
+                    }
+                    Collections.sort(expected);
+                    expected = expected.subList(0, Math.min(k, expected.size()));
+
+                    String message = String.format("(%.5f, %.5f) radius %s k %d",
+                            origin[0], origin[1], radiusKm, k);
+                    assertEquals(message, expected.size(), result.size());
+                    for (int i = 0; i < result.size(); i++) {
+                        assertEquals(message, expected.get(i), result.distancesKm[i], 1e-9);
+                        // Indices point at the entries the distances were measured to
+                        int index = result.indices[i];
+                        assertEquals(message, result.distancesKm[i],
+                                GeoHash.distanceKm(origin[0], origin[1], lats[index], lngs[index]), 1e-9);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void nearest_emptyInputs() {
+        double[] lats = {22.4195};
+        double[] lngs = {114.2067};
+
+        assertEquals(0, DistanceRanker.nearest(22.4, 114.2, lats, lngs, 0, 10, 5).size());
+        assertEquals(0, DistanceRanker.nearest(22.4, 114.2, lats, lngs, 1, 10, 0).size());
+        assertEquals(1, DistanceRanker.nearest(22.4, 114.2, lats, lngs, 1, 10, 5).size());
+    }
+}
@@ -0,0 +1,92 @@
+package edu.cuhk.cuchat.utils;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GeoHashTest {
+
+    private static final double[][] CENTRES = {
+            {22.4195, 114.2067}, // CUHK
+            {0, 0},
+            {51.4779, -0.0015}, // On the prime meridian
+            {64.1, 179.9995}, // Next to the antimeridian
+            {-40.5, -179.9999},
+            {85.2, 12.3},
+            {89.999, -60}, // Circles around the poles
+            {-89.97, 100},
+    };
+
+    private static final double[] RADII_KM = {0.005, 0.1, 0.5, 2, 10, 50, 300};
+
+    @Test
+    public void encode_knownHashes() {
+        assertEquals("u4pruydqqvj", GeoHash.encode(57.64911, 10.40744, 11));
+        assertEquals("ezs42", GeoHash.encode(42.6, -5.6, 5));
+        assertEquals("s00000", GeoHash.encode(0, 0, 6));
+    }
+
+    @Test
+    public void encode_prefixOfLongerHash() {
+        String full = GeoHash.encode(22.4195, 114.2067, GeoHash.STORED_PRECISION);
+        for (int precision = 1; precision < GeoHash.STORED_PRECISION; precision++) {
+            assertTrue(full.startsWith(GeoHash.encode(22.4195, 114.2067, precision)));
+        }
+    }
+
+    @Test
+    public void coveringPrefixes_containEveryPointInRadius() {
+        Random random = new Random(17);
+        for (double[] centre : CENTRES) {
+            for (double radiusKm : RADII_KM) {
+                List<String> prefixes = GeoHash.coveringPrefixes(centre[0], centre[1], radiusKm);
+                for (int i = 0; i < 500; i++) {
+                    // Half on the rim, where a too small cover fails first
+                    double distanceKm = i % 2 == 0 ? radiusKm : radiusKm * Math.sqrt(random.nextDouble());
+                    double[] point = TestPoints.destination(centre[0], centre[1], distanceKm,
+                            random.nextDouble() * 360);
+                    String hash = GeoHash.encode(point[0], point[1], GeoHash.STORED_PRECISION);
+                    if (!covered(prefixes, hash)) {
+                        fail(String.format("(%.6f, %.6f) %.6f km from (%s, %s) is outside %s",
+                                point[0], point[1], distanceKm, centre[0], centre[1], prefixes));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void coveringPrefixes_stayFewAndFine() {
+        // Away from the poles the cover is at most the 3 x 3 block
+        List<String> prefixes = GeoHash.coveringPrefixes(22.4195, 114.2067, 0.5);
+        assertTrue(prefixes.size() <= 9);
+        assertEquals(6, prefixes.get(0).length());
+
+        // Cells of half a kilometre are not used for a 50 km circle, nor the other way round
+        assertEquals(3, GeoHash.coveringPrefixes(22.4195, 114.2067, 50).get(0).length());
+    }
+
+    @Test
+    public void distanceKm_knownDistances() {
+        assertEquals(0, GeoHash.distanceKm(22.4195, 114.2067, 22.4195, 114.2067), 1e-9);
+        // One degree along the equator, and across the antimeridian
+        assertEquals(111.195, GeoHash.distanceKm(0, 0, 0, 1), 0.001);
+        assertEquals(111.195, GeoHash.distanceKm(0, 179.5, 0, -179.5), 0.001);
+        // Over the pole
+        assertEquals(2 * 111.195, GeoHash.distanceKm(89, 0, 89, 180), 0.001);
+    }
+
+    private static boolean covered(List<String> prefixes, String hash) {
+        for (String prefix : prefixes) {
+            if (hash.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,185 @@
+package edu.cuhk.cuchat.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SearchIndexTest {
+
+    private SearchIndex index;
+
+    @Before
+    public void setUp() {
+        index = new SearchIndex();
+    }
+
+    @Test
+    public void prefix_matches() {
+        index.put("1", "Alice");
+        index.put("2", "Bob");
+
+        assertEquals(Collections.singletonList("1"), index.search("ali", 10));
+        assertEquals(Collections.singletonList("1"), index.search("ALICE", 10));
+        assertEquals(Collections.singletonList("2"), index.search("b", 10));
+    }
+
+    @Test
+    public void oneTypo_matches() {
+        index.put("1", "Alice");
+
+        assertEquals(Collections.singletonList("1"), index.search("aloce", 10)); // Substitution
+        assertEquals(Collections.singletonList("1"), index.search("alce", 10)); // Deletion
+        assertEquals(Collections.singletonList("1"), index.search("allice", 10)); // Insertion
+    }
+
+    @Test
+    public void twoTypos_needLongerWords() {
+        index.put("1", "Jonathan");
+        index.put("2", "Alice");
+
+        assertEquals(Collections.singletonList("1"), index.search("jpnathon", 10));
+        assertTrue(index.search("aoixe", 10).isEmpty()); // Two typos in five characters
+    }
+
+    @Test
+    public void transposition_isOneTypo() {
+        index.put("1", "Bob");
+        index.put("2", "Jonathan");
+
+        assertEquals(Collections.singletonList("1"), index.search("bbo", 10));
+        // A swap plus a substitution is still within two typos
+        assertEquals(Collections.singletonList("2"), index.search("jonatahm", 10));
+    }
+
+    @Test
+    public void shortWords_matchOnlyAsPrefix() {
+        index.put("1", "Alice");
+
+        assertEquals(Collections.singletonList("1"), index.search("al", 10));
+        assertTrue(index.search("ak", 10).isEmpty());
+        assertTrue(index.search("la", 10).isEmpty());
+        // Three characters are enough for one typo
+        assertEquals(Collections.singletonList("1"), index.search("alx", 10));
+    }
+
+    @Test
+    public void multiWordQuery_needsEveryWord() {
+        index.put("1", "John Smith");
+        index.put("2", "John Doe");
+        index.put("3", "Jane Smith");
+
+        assertEquals(Collections.singletonList("1"), index.search("john smi", 10));
+        assertEquals(Collections.singletonList("1"), index.search("smith john", 10));
+        assertEquals(Collections.singletonList("3"), index.search("smyth jane", 10));
+        assertTrue(index.search("jane doe", 10).isEmpty());
+    }
+
+    @Test
+    public void ranking_exactThenPrefixThenTypo() {
+        index.put("typo", "Rob");
+        index.put("prefix", "Bobby");
+        index.put("exact", "Bob");
+
+        assertEquals(Arrays.asList("exact", "prefix", "typo"), index.search("bob", 10));
+    }
+
+    @Test
+    public void ranking_leadingTextFirst() {
+        // Both match "anna" exactly, only one by the name it is shown with
+        index.put("email", "zed", "anna");
+        index.put("name", "Anna", "zed");
+
+        assertEquals(Arrays.asList("name", "email"), index.search("anna", 10));
+    }
+
+    @Test
+    public void ranking_shorterNameBreaksTies() {
+        index.put("long", "Samantha Lee");
+        index.put("short", "Samantha");
+
+        assertEquals(Arrays.asList("short", "long"), index.search("sam", 10));
+    }
+
+    @Test
+    public void prefixMatches_survivePlentyOfTypoMatches() {
+        // One typo from "ann" and earlier in the alphabet, more than a query collects
+        for (int i = 0; i < 300; i++) {
+            index.put("typo" + i, "Ana" + i);
+        }
+        index.put("anna", "Anna");
+        index.put("ann", "Ann");
+
+        assertEquals(Arrays.asList("ann", "anna"), index.search("ann", 2));
+    }
+
+    @Test
+    public void search_respectsLimit() {
+        for (int i = 0; i < 50; i++) {
+            index.put("user" + i, "user" + i);
+        }
+
+        assertEquals(5, index.search("user", 5).size());
+        assertTrue(index.search("user", 0).isEmpty());
+        assertTrue(index.search("  ", 10).isEmpty());
+    }
+
+    @Test
+    public void remove_leavesNoBranches() {
+        index.put("1", "Alice", "alice.wong");
+        index.put("2", "Alison");
+        int withBoth = index.nodeCount();
+
+        index.remove("2");
+        assertFalse(index.contains("2"));
+        assertTrue(index.search("alison", 10).isEmpty());
+
+        SearchIndex onlyFirst = new SearchIndex();
+        onlyFirst.put("1", "Alice", "alice.wong");
+        assertEquals(onlyFirst.nodeCount(), index.nodeCount());
+        assertTrue(index.nodeCount() < withBoth);
+
+        index.remove("1");
+        assertEquals(0, index.size());
+        assertEquals(0, index.nodeCount());
+    }
+
+    @Test
+    public void put_replacesPreviousTexts() {
+        index.put("1", "Alice");
+        index.put("1", "Bob");
+
+        assertEquals(1, index.size());
+        assertTrue(index.search("alice", 10).isEmpty());
+        assertEquals(Collections.singletonList("1"), index.search("bob", 10));
+
+        SearchIndex fresh = new SearchIndex();
+        fresh.put("1", "Bob");
+        assertEquals(fresh.nodeCount(), index.nodeCount());
+    }
+
+    @Test
+    public void sharedWords_surviveRemovalOfOneEntry() {
+        index.put("1", "Chris Wong");
+        index.put("2", "Wong Family");
+
+        index.remove("1");
+        assertEquals(Collections.singletonList("2"), index.search("wong", 10));
+        assertTrue(index.search("chris", 10).isEmpty());
+    }
+
+    @Test
+    public void clear_emptiesIndex() {
+        index.put("1", "Alice");
+        index.clear();
+
+        assertEquals(0, index.size());
+        assertEquals(0, index.nodeCount());
+        assertTrue(index.search("alice", 10).isEmpty());
+    }
+}
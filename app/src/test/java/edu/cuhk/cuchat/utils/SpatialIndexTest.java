@@ -0,0 +1,136 @@
+package edu.cuhk.cuchat.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpatialIndexTest {
+
+    private static final double CELL_DEGREES = 0.005; // As used by MapFragment
+
+    // Centres where the grid is regular, where its columns shrink, and where it wraps
+    private static final double[][] CENTRES = {
+            {22.4195, 114.2067}, // CUHK
+            {0, 0},
+            {89.99, 45},
+            {-89.995, -120},
+            {71.5, 179.999},
+            {-33.9, -179.998},
+    };
+
+    @Test
+    public void withinRadius_matchesBruteForce() {
+        Random random = new Random(42);
+        for (double[] centre : CENTRES) {
+            SpatialIndex index = new SpatialIndex(CELL_DEGREES);
+            List<double[]> points = scatter(index, random, centre[0], centre[1], 2000, 30);
+
+            for (double radiusKm : new double[]{0.2, 1, 5, 20}) {
+                for (int q = 0; q < 10; q++) {
+                    double[] origin = TestPoints.within(random, centre[0], centre[1], 10);
+                    List<SpatialIndex.Hit> hits = index.withinRadius(origin[0], origin[1], radiusKm, Integer.MAX_VALUE);
+                    List<Double> expected = bruteForce(points, origin[0], origin[1], radiusKm);
+                    assertDistances(describe(origin, radiusKm), expected, hits);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void withinRadius_respectsLimit() {
+        Random random = new Random(7);
+        SpatialIndex index = new SpatialIndex(CELL_DEGREES);
+        List<double[]> points = scatter(index, random, 22.4195, 114.2067, 1000, 5);
+
+        List<SpatialIndex.Hit> hits = index.withinRadius(22.4195, 114.2067, 5, 25);
+        List<Double> expected = bruteForce(points, 22.4195, 114.2067, 5);
+        assertDistances("limit 25", expected.subList(0, 25), hits);
+    }
+
+    @Test
+    public void nearest_matchesBruteForce() {
+        Random random = new Random(1234);
+        for (double[] centre : CENTRES) {
+            // Dense and sparse, the sparse case exercises the fall back to a full scan
+            for (int count : new int[]{3000, 20}) {
+                SpatialIndex index = new SpatialIndex(CELL_DEGREES);
+                List<double[]> points = scatter(index, random, centre[0], centre[1], count, 30);
+
+                for (int k : new int[]{1, 5, 50}) {
+                    for (int q = 0; q < 10; q++) {
+                        double[] origin = TestPoints.within(random, centre[0], centre[1], 40);
+                        List<SpatialIndex.Hit> hits = index.nearest(origin[0], origin[1], k);
+                        List<Double> expected = bruteForce(points, origin[0], origin[1], Double.MAX_VALUE);
+                        assertDistances(describe(origin, k) + " of " + count,
+                                expected.subList(0, Math.min(k, expected.size())), hits);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void put_movesAndRemoveForgets() {
+        SpatialIndex index = new SpatialIndex(CELL_DEGREES);
+        index.put("a", 22.4195, 114.2067);
+        index.put("b", 22.5, 114.3);
+
+        // Moved within its cell and then across cells, it must only be found at the new place
+        index.put("a", 22.4196, 114.2068);
+        index.put("a", 22.6, 114.5);
+        assertEquals(2, index.size());
+        assertTrue(index.withinRadius(22.4195, 114.2067, 1, 10).isEmpty());
+        assertEquals("a", index.nearest(22.6, 114.5, 1).get(0).id);
+
+        assertTrue(index.remove("a"));
+        assertFalse(index.remove("a"));
+        assertFalse(index.contains("a"));
+        assertEquals("b", index.nearest(22.6, 114.5, 1).get(0).id);
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertTrue(index.nearest(22.6, 114.5, 1).isEmpty());
+    }
+
+    // Adds count points spread uniformly within maxKm of the centre, returns them as {lat, lng}
+    private static List<double[]> scatter(SpatialIndex index, Random random, double lat, double lng,
+                                          int count, double maxKm) {
+        List<double[]> points = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double[] point = TestPoints.within(random, lat, lng, maxKm);
+            index.put("p" + i, point[0], point[1]);
+            points.add(point);
+        }
+        return points;
+    }
+
+    private static List<Double> bruteForce(List<double[]> points, double lat, double lng, double radiusKm) {
+        List<Double> distances = new ArrayList<>();
+        for (double[] point : points) {
+            double distance = GeoHash.distanceKm(lat, lng, point[0], point[1]);
+            if (distance <= radiusKm) {
+                distances.add(distance);
+            }
+        }
+        Collections.sort(distances);
+        return distances;
+    }
+
+    private static void assertDistances(String message, List<Double> expected, List<SpatialIndex.Hit> hits) {
+        assertEquals(message + ": number of hits", expected.size(), hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            assertEquals(message + ": hit " + i, expected.get(i), hits.get(i).distanceKm, 1e-9);
+        }
+    }
+
+    private static String describe(double[] origin, Object query) {
+        return String.format("(%.5f, %.5f) %s", origin[0], origin[1], query);
+    }
+}
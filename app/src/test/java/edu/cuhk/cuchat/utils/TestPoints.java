@@ -0,0 +1,33 @@
+package edu.cuhk.cuchat.utils;
+
+import java.util.Random;
+
+// Random positions for the geo tests, spread by true distance so they wrap across the
+// antimeridian and over the poles like real coordinates do
+final class TestPoints {
+
+    static final double EARTH_RADIUS_KM = 6371.0;
+
+    private TestPoints() {
+    }
+
+    // The point distanceKm away along the initial bearing, longitude wrapped to [-180, 180)
+    static double[] destination(double lat, double lng, double distanceKm, double bearingDegrees) {
+        double angular = distanceKm / EARTH_RADIUS_KM;
+        double bearing = Math.toRadians(bearingDegrees);
+        double lat1 = Math.toRadians(lat);
+        double lng1 = Math.toRadians(lng);
+
+        double lat2 = Math.asin(Math.sin(lat1) * Math.cos(angular)
+                + Math.cos(lat1) * Math.sin(angular) * Math.cos(bearing));
+        double lng2 = lng1 + Math.atan2(Math.sin(bearing) * Math.sin(angular) * Math.cos(lat1),
+                Math.cos(angular) - Math.sin(lat1) * Math.sin(lat2));
+        double lngDegrees = (Math.toDegrees(lng2) + 540) % 360 - 180;
+        return new double[]{Math.toDegrees(lat2), lngDegrees};
+    }
+
+    // Uniform over the disc of radius maxKm around the centre
+    static double[] within(Random random, double lat, double lng, double maxKm) {
+        return destination(lat, lng, maxKm * Math.sqrt(random.nextDouble()), random.nextDouble() * 360);
+    }
+}
@@ -0,0 +1,148 @@
+// Geohash encoding and radius covering, the same scheme as the app's GeoHash class.
+//
+// Every point inside a geohash cell has a hash starting with the cell's hash, so all
+// users in a cell are one orderBy("geohash") range query, startAt(prefix).endAt(prefix +
+// END_SUFFIX). A circle is covered by the cell around its centre plus the 8 neighbours,
+// at the finest precision whose cells are at least as large as the circle's extent in
+// latitude and longitude. A circle around a pole, or too large for that, is covered by
+// whole rows of the coarsest cells instead.
+
+// Precision the app writes to the user documents, cells of roughly 5m x 5m
+const STORED_PRECISION = 9;
+
+// Sorts after every geohash character, for the end of a prefix range
+const END_SUFFIX = "\uf8ff";
+
+const BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+const EARTH_RADIUS_KM = 6371.0;
+
+const toRadians = (degrees) => degrees * Math.PI / 180;
+const toDegrees = (radians) => radians * 180 / Math.PI;
+
+const encode = (lat, lng, precision) => {
+  let minLat = -90; let maxLat = 90;
+  let minLng = -180; let maxLng = 180;
+  let hash = "";
+  let evenBit = true; // Bits alternate, starting with longitude
+  let bit = 0;
+  let ch = 0;
+
+  while (hash.length < precision) {
+    if (evenBit) {
+      const mid = (minLng + maxLng) / 2;
+      if (lng >= mid) {
+        ch = (ch << 1) | 1;
+        minLng = mid;
+      } else {
+        ch = ch << 1;
+        maxLng = mid;
+      }
+    } else {
+      const mid = (minLat + maxLat) / 2;
+      if (lat >= mid) {
+        ch = (ch << 1) | 1;
+        minLat = mid;
+      } else {
+        ch = ch << 1;
+        maxLat = mid;
+      }
+    }
+    evenBit = !evenBit;
+
+    if (++bit === 5) {
+      hash += BASE32.charAt(ch);
+      bit = 0;
+      ch = 0;
+    }
+  }
+  return hash;
+};
+
+const cellHeightDegrees = (precision) => 180.0 / Math.pow(2, Math.floor((5 * precision) / 2));
+
+const cellWidthDegrees = (precision) => 360.0 / Math.pow(2, Math.floor((5 * precision + 1) / 2));
+
+const wrapLongitude = (lng) => {
+  if (lng > 180) {
+    return lng - 360;
+  }
+  if (lng < -180) {
+    return lng + 360;
+  }
+  return lng;
+};
+
+// Finest precision whose cells are at least latSpan tall and lngSpan wide
+const precisionFor = (latSpan, lngSpan) => {
+  for (let precision = STORED_PRECISION; precision > 1; precision--) {
+    if (cellHeightDegrees(precision) >= latSpan && cellWidthDegrees(precision) >= lngSpan) {
+      return precision;
+    }
+  }
+  return 1;
+};
+
+// Every precision 1 cell of the rows between the two latitudes, all the way around
+const bandPrefixes = (minLat, maxLat) => {
+  const cellHeight = cellHeightDegrees(1);
+  const cellWidth = cellWidthDegrees(1);
+  const prefixes = [];
+  for (let rowLat = -90; rowLat < 90; rowLat += cellHeight) {
+    if (rowLat + cellHeight < minLat || rowLat > maxLat) {
+      continue;
+    }
+    for (let colLng = -180; colLng < 180; colLng += cellWidth) {
+      prefixes.push(encode(rowLat + cellHeight / 2, colLng + cellWidth / 2, 1));
+    }
+  }
+  return prefixes;
+};
+
+// Distinct cell prefixes that together contain every point within radiusKm of the centre
+const coveringPrefixes = (lat, lng, radiusKm) => {
+  // Extent of the circle: exact in latitude, and in longitude at its widest point,
+  // which is poleward of the centre
+  const latSpan = toDegrees(radiusKm / EARTH_RADIUS_KM);
+  if (Math.abs(lat) + latSpan >= 90 || latSpan > cellHeightDegrees(1)) {
+    return bandPrefixes(lat - latSpan, lat + latSpan);
+  }
+  const lngSpan = toDegrees(Math.asin(Math.sin(toRadians(latSpan)) / Math.cos(toRadians(lat))));
+  if (lngSpan > cellWidthDegrees(1)) {
+    return bandPrefixes(lat - latSpan, lat + latSpan);
+  }
+
+  const precision = precisionFor(latSpan, lngSpan);
+  const cellHeight = cellHeightDegrees(precision);
+  const cellWidth = cellWidthDegrees(precision);
+
+  const prefixes = [];
+  for (let dy = -1; dy <= 1; dy++) {
+    for (let dx = -1; dx <= 1; dx++) {
+      const cellLat = Math.max(-90, Math.min(90, lat + dy * cellHeight));
+      const cellLng = wrapLongitude(lng + dx * cellWidth);
+      const prefix = encode(cellLat, cellLng, precision);
+      if (!prefixes.includes(prefix)) {
+        prefixes.push(prefix);
+      }
+    }
+  }
+  return prefixes;
+};
+
+// Great-circle distance (haversine)
+const distanceKm = (lat1, lng1, lat2, lng2) => {
+  const dLat = toRadians(lat2 - lat1);
+  const dLng = toRadians(lng2 - lng1);
+  const a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+      Math.cos(toRadians(lat1)) * Math.cos(toRadians(lat2)) *
+      Math.sin(dLng / 2) * Math.sin(dLng / 2);
+  return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+};
+
+module.exports = {
+  STORED_PRECISION,
+  END_SUFFIX,
+  encode,
+  coveringPrefixes,
+  distanceKm,
+};
@@ -1,7 +1,19 @@
-const functions = require("firebase-functions");
+// The triggers use the v1 API, which firebase-functions 6 no longer exports from its root
+const functions = require("firebase-functions/v1");
 const admin = require("firebase-admin");
+const geohash = require("./geohash");
 admin.initializeApp();
 
+// Proximity alerts, see detectNearbyUsers
+const PROXIMITY_RADIUS_KM = 0.5;
+const LOCATION_FRESH_MS = 15 * 60 * 1000; // The app rewrites an unchanged location every 5 minutes
+const NEARBY_EDGE_TTL_MS = 30 * 60 * 1000; // Extended while the two users stay close
+const MIN_CHECK_INTERVAL_MS = 60 * 1000; // Per moving user
+const MAX_ALERTS_PER_WINDOW = 10; // New edges per user and window
+const ALERT_WINDOW_MS = 60 * 60 * 1000;
+const MAX_USERS_PER_CELL = 200;
+const MAX_EDGES_PER_TRANSACTION = 200; // Keeps each transaction well under the 500 write limit
+
 // Cloud function to send FCM notification
 exports.sendNotification = functions.https.onCall(async (data, context) => {
   // Verify authentication
@@ -104,8 +116,12 @@ exports.sendChatNotification = functions.firestore
 
         const receiverData = receiverDoc.data();
 
+        // Presence is kept in the Realtime Database status node, not the user document
+        const statusSnap = await admin.database().ref(`status/${receiverId}`).once("value");
+        const receiverStatus = statusSnap.val();
+
         // Don't send notification if the receiver is online and in the chat
-        if (receiverData.isOnline) {
+        if (receiverStatus && receiverStatus.state === "online") {
         // You'd need a field in Firestore to track if user is currently in this specific chat
         // For simplicity, we'll just check if they're online
           console.log("Receiver is online, not sending notification");
@@ -164,13 +180,211 @@ exports.sendChatNotification = functions.firestore
       }
     });
 
-// Cloud function to send notification when a user is nearby
+// Cloud function to find the users near someone whose location changed, and record each
+// pair as users/{userId}/nearbyUsers/{nearbyUserId} edges in both directions.
+// Only the geohash cells covering PROXIMITY_RADIUS_KM are read, not the whole collection.
+exports.detectNearbyUsers = functions.firestore
+    .document("users/{userId}")
+    .onWrite(async (change, context) => {
+      try {
+        const {userId} = context.params;
+        const before = change.before.exists ? change.before.data() : {};
+        const after = change.after.exists ? change.after.data() : null;
+
+        // Only location writes, not profile or token updates
+        if (!after || !after.location || !after.geohash) {
+          return null;
+        }
+        if (before.geohash === after.geohash &&
+            before.lastLocationUpdate === after.lastLocationUpdate) {
+          return null;
+        }
+
+        const now = Date.now();
+        if (!isFresh(after, now)) {
+          return null;
+        }
+
+        // Rate limit the cell scans of a user who keeps moving
+        const db = admin.firestore();
+        const limitRef = db.collection("proximity").doc(userId);
+        const due = await db.runTransaction(async (transaction) => {
+          const limit = await transaction.get(limitRef);
+          if (limit.exists && now - (limit.get("checkedAt") || 0) < MIN_CHECK_INTERVAL_MS) {
+            return false;
+          }
+          transaction.set(limitRef, {checkedAt: now}, {merge: true});
+          return true;
+        });
+        if (!due) {
+          console.log(`Proximity check for ${userId} skipped, checked recently`);
+          return null;
+        }
+
+        const lat = after.location.latitude;
+        const lng = after.location.longitude;
+        const cellQueries = geohash.coveringPrefixes(lat, lng, PROXIMITY_RADIUS_KM)
+            .map((prefix) => db.collection("users")
+                .orderBy("geohash")
+                .startAt(prefix)
+                .endAt(prefix + geohash.END_SUFFIX)
+                .limit(MAX_USERS_PER_CELL)
+                .get());
+        const cells = await Promise.all(cellQueries);
+
+        // Edges grouped by the user they belong to, each neighbour also gets one back
+        const edges = new Map([[userId, []]]);
+        const addEdge = (ownerId, otherId, distanceKm) => {
+          if (!edges.has(ownerId)) {
+            edges.set(ownerId, []);
+          }
+          edges.get(ownerId).push({otherId, distanceKm});
+        };
+        for (const cell of cells) {
+          for (const doc of cell.docs) {
+            const other = doc.data();
+            if (doc.id === userId || !other.location || !isFresh(other, now)) {
+              continue;
+            }
+            const distanceKm = geohash.distanceKm(lat, lng,
+                other.location.latitude, other.location.longitude);
+            if (distanceKm <= PROXIMITY_RADIUS_KM) {
+              addEdge(userId, doc.id, distanceKm);
+              addEdge(doc.id, userId, distanceKm);
+            }
+          }
+        }
+
+        // Owners do not share any documents, so they are recorded in parallel. A failure for
+        // one owner does not lose the others' edges.
+        const owners = [...edges.keys()];
+        const results = await Promise.allSettled(
+            owners.map((ownerId) => recordNearbyEdges(ownerId, edges.get(ownerId), now)));
+        const counts = {created: 0, refreshed: 0, limited: 0};
+        results.forEach((result, i) => {
+          if (result.status === "rejected") {
+            console.error(`Error recording nearby users of ${owners[i]}:`, result.reason);
+            return;
+          }
+          Object.keys(counts).forEach((key) => counts[key] += result.value[key]);
+        });
+        console.log(`Proximity check for ${userId}: ${counts.created} new, ` +
+            `${counts.refreshed} refreshed, ${counts.limited} rate limited`);
+        return null;
+      } catch (error) {
+        console.error("Error detecting nearby users:", error);
+        return null;
+      }
+    });
+
+// A location written within LOCATION_FRESH_MS, older ones are users who left the app
+const isFresh = (userData, now) => {
+  const updatedAt = userData.lastLocationUpdate;
+  return typeof updatedAt === "number" && now - updatedAt <= LOCATION_FRESH_MS;
+};
+
+// Creates or extends the edges telling ownerId that each of the others is nearby. A live
+// edge is only extended, so the pair is alerted once per encounter; a new encounter counts
+// against the owner's alert budget for the window.
+// The owner's limit doc is read and written once per transaction, and the transactions of
+// one owner run one after another, so a scan never contends with itself.
+const recordNearbyEdges = async (ownerId, others, now) => {
+  const counts = {created: 0, refreshed: 0, limited: 0};
+  for (let start = 0; start < others.length; start += MAX_EDGES_PER_TRANSACTION) {
+    const chunk = await recordNearbyEdgeChunk(ownerId,
+        others.slice(start, start + MAX_EDGES_PER_TRANSACTION), now);
+    Object.keys(counts).forEach((key) => counts[key] += chunk[key]);
+  }
+  return counts;
+};
+
+const recordNearbyEdgeChunk = (ownerId, others, now) => {
+  const db = admin.firestore();
+  const nearbyUsers = db.collection("users").doc(ownerId).collection("nearbyUsers");
+  const limitRef = db.collection("proximity").doc(ownerId);
+  const expiresAt = admin.firestore.Timestamp.fromMillis(now + NEARBY_EDGE_TTL_MS);
+
+  return db.runTransaction(async (transaction) => {
+    const edgeRefs = others.map(({otherId}) => nearbyUsers.doc(otherId));
+    const [limit, ...existing] = await transaction.getAll(limitRef, ...edgeRefs);
+
+    let windowStart = limit.exists ? limit.get("alertWindowStart") || 0 : 0;
+    let alertCount = limit.exists ? limit.get("alertCount") || 0 : 0;
+    if (now - windowStart >= ALERT_WINDOW_MS) {
+      windowStart = now;
+      alertCount = 0;
+    }
+
+    const counts = {created: 0, refreshed: 0, limited: 0};
+    others.forEach(({otherId, distanceKm}, i) => {
+      const edge = existing[i];
+      if (edge.exists && edge.get("expiresAt").toMillis() > now) {
+        transaction.update(edgeRefs[i], {distanceKm: distanceKm, expiresAt: expiresAt});
+        counts.refreshed++;
+        return;
+      }
+      if (alertCount >= MAX_ALERTS_PER_WINDOW) {
+        counts.limited++;
+        return;
+      }
+
+      // Overwrites an expired edge that was not cleaned up yet, as a new encounter
+      transaction.set(edgeRefs[i], {
+        userId: otherId,
+        distanceKm: distanceKm,
+        detectedAt: admin.firestore.Timestamp.fromMillis(now),
+        expiresAt: expiresAt,
+      });
+      alertCount++;
+      counts.created++;
+    });
+
+    if (counts.created > 0) {
+      transaction.set(limitRef, {alertWindowStart: windowStart, alertCount: alertCount}, {merge: true});
+    }
+    return counts;
+  });
+};
+
+// Cloud function to delete expired nearbyUsers edges
+exports.expireNearbyUsers = functions.pubsub
+    .schedule("every 30 minutes")
+    .onRun(async () => {
+      try {
+        const db = admin.firestore();
+        const expired = await db.collectionGroup("nearbyUsers")
+            .where("expiresAt", "<=", admin.firestore.Timestamp.now())
+            .limit(500)
+            .get();
+
+        const batch = db.batch();
+        expired.docs.forEach((doc) => batch.delete(doc.ref));
+        await batch.commit();
+        console.log(`Deleted ${expired.size} expired nearby user edges`);
+        return null;
+      } catch (error) {
+        console.error("Error expiring nearby users:", error);
+        return null;
+      }
+    });
+
+// Cloud function to send notification when a user is nearby, once per encounter
 exports.sendNearbyUserNotification = functions.firestore
     .document("users/{userId}/nearbyUsers/{nearbyUserId}")
-    .onCreate(async (snapshot, context) => {
+    .onWrite(async (change, context) => {
       try {
         const {userId, nearbyUserId} = context.params;
 
+        // A new encounter sets detectedAt, extending a live edge does not
+        if (!change.after.exists) {
+          return null;
+        }
+        const detectedAt = change.after.get("detectedAt");
+        const previous = change.before.exists ? change.before.get("detectedAt") : null;
+        if (previous && detectedAt && previous.isEqual(detectedAt)) {
+          return null;
+        }
+
         // Get the user documents
         const userDoc = await admin.firestore().collection("users").doc(userId).get();
         const nearbyUserDoc = await admin.firestore().collection("users").doc(nearbyUserId).get();
@@ -183,6 +397,11 @@ exports.sendNearbyUserNotification = functions.firestore
         const userData = userDoc.data();
         const nearbyUserData = nearbyUserDoc.data();
 
+        if (!userData.fcmToken) {
+          console.log("User has no FCM token");
+          return null;
+        }
+
         // Create the notification message
         const notificationMessage = {
           token: userData.fcmToken,
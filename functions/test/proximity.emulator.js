@@ -0,0 +1,122 @@
+// End-to-end check of detectNearbyUsers against the Firestore and Functions emulators.
+// Run with `npm run test:emulator`, which starts fresh emulators around this script.
+const assert = require("assert");
+const admin = require("firebase-admin");
+const geohash = require("../geohash");
+
+if (!process.env.FIRESTORE_EMULATOR_HOST) {
+  console.error("FIRESTORE_EMULATOR_HOST is not set, run this through `npm run test:emulator`");
+  process.exit(1);
+}
+
+admin.initializeApp({projectId: process.env.GCLOUD_PROJECT || "demo-cuchat"});
+const db = admin.firestore();
+
+// CUHK, the app's default location
+const BASE_LAT = 22.4195;
+const BASE_LNG = 114.2067;
+const KM_PER_DEGREE = 111.32;
+
+const sleep = (ms) => new Promise((resolve) => setTimeout(resolve, ms));
+
+// Writes a location the way the app's LocationTracker does, kmNorth of the base
+const moveUser = (userId, kmNorth, ageMs = 0) => {
+  const lat = BASE_LAT + kmNorth / KM_PER_DEGREE;
+  return db.collection("users").doc(userId).set({
+    username: userId,
+    location: new admin.firestore.GeoPoint(lat, BASE_LNG),
+    geohash: geohash.encode(lat, BASE_LNG, geohash.STORED_PRECISION),
+    lastLocationUpdate: Date.now() - ageMs,
+  }, {merge: true});
+};
+
+const edge = (ownerId, otherId) =>
+  db.collection("users").doc(ownerId).collection("nearbyUsers").doc(otherId).get();
+
+// Triggers run asynchronously, poll until the condition holds
+const waitFor = async (description, condition, timeoutMs = 15000) => {
+  const deadline = Date.now() + timeoutMs;
+  while (Date.now() < deadline) {
+    if (await condition()) {
+      return;
+    }
+    await sleep(250);
+  }
+  throw new Error(`Timed out waiting for ${description}`);
+};
+
+// Lets the next location write of userId be checked without waiting out the rate limit
+const allowCheck = (userId) => db.collection("proximity").doc(userId).set({checkedAt: 0}, {merge: true});
+
+const run = async () => {
+  await moveUser("alice", 0);
+  await moveUser("far", 2.0);
+  await moveUser("stale", 0.1, 60 * 60 * 1000);
+  await moveUser("bob", 0.2);
+
+  console.log("Users within the radius get edges both ways");
+  await waitFor("alice -> bob", async () => (await edge("alice", "bob")).exists);
+  await waitFor("bob -> alice", async () => (await edge("bob", "alice")).exists);
+
+  console.log("Users out of range or with a stale location get none");
+  await sleep(2000);
+  assert(!(await edge("bob", "far")).exists, "far user was matched");
+  assert(!(await edge("bob", "stale")).exists, "stale user was matched");
+
+  console.log("A live edge is extended, not recreated");
+  const first = await edge("alice", "bob");
+  await allowCheck("bob");
+  await moveUser("bob", 0.25);
+  await waitFor("alice -> bob extended", async () =>
+    (await edge("alice", "bob")).get("expiresAt").toMillis() > first.get("expiresAt").toMillis());
+  assert((await edge("alice", "bob")).get("detectedAt").isEqual(first.get("detectedAt")),
+      "live edge got a new detectedAt");
+
+  console.log("An expired edge becomes a new encounter");
+  await db.collection("users").doc("alice").collection("nearbyUsers").doc("bob")
+      .update({expiresAt: admin.firestore.Timestamp.fromMillis(Date.now() - 1000)});
+  await allowCheck("bob");
+  await moveUser("bob", 0.3);
+  await waitFor("alice -> bob detected again", async () =>
+    !(await edge("alice", "bob")).get("detectedAt").isEqual(first.get("detectedAt")));
+
+  console.log("A user over the alert budget gets no new edges");
+  await db.collection("proximity").doc("alice")
+      .set({alertWindowStart: Date.now(), alertCount: 1000}, {merge: true});
+  await moveUser("carol", -0.2);
+  await waitFor("carol -> alice", async () => (await edge("carol", "alice")).exists);
+  await sleep(2000);
+  assert(!(await edge("alice", "carol")).exists, "rate limited user got an edge");
+
+  console.log("A crowd in one cell is recorded in one scan, within the alert budget");
+  const crowd = [];
+  for (let i = 0; i < 12; i++) {
+    crowd.push(`crowd${i}`);
+    await moveUser(`crowd${i}`, 5 + i * 0.005);
+  }
+  const crowdCell = geohash.encode(BASE_LAT + 5 / KM_PER_DEGREE, BASE_LNG, 6);
+  const lastCell = geohash.encode(BASE_LAT + (5 + 11 * 0.005) / KM_PER_DEGREE, BASE_LNG, 6);
+  assert.strictEqual(crowdCell, lastCell, "crowd spans more than one cell");
+  await sleep(3000); // Let the crowd's own scans finish
+  // Fresh budgets, so every member has room for the edge back to dave
+  await Promise.all(crowd.map((userId) => db.collection("proximity").doc(userId)
+      .set({alertWindowStart: Date.now(), alertCount: 0}, {merge: true})));
+  await moveUser("dave", 5.02);
+  await waitFor("dave's crowd edges", async () =>
+    (await db.collection("users").doc("dave").collection("nearbyUsers").get()).size === 10);
+  for (const userId of crowd) {
+    await waitFor(`${userId} -> dave`, async () => (await edge(userId, "dave")).exists);
+  }
+  await sleep(2000);
+  assert.strictEqual((await db.collection("users").doc("dave").collection("nearbyUsers").get()).size, 10,
+      "dave got more edges than the alert budget");
+  assert.strictEqual((await db.collection("proximity").doc("dave").get()).get("alertCount"), 10,
+      "dave's alert count does not match the edges created");
+
+  console.log("All proximity checks passed");
+};
+
+run().then(() => process.exit(0)).catch((error) => {
+  console.error(error);
+  process.exit(1);
+});